@@ -0,0 +1,61 @@
+/**
+ * An AdaptiveOperation is a PointOperation whose table is derived from the
+ * statistics of the image it is applied to, such as a contrast stretch to
+ * the range the samples actually use, or a threshold chosen by Otsu's
+ * method. Applied on its own it costs one pass to measure the image and one
+ * to transform it; in an ImagePipeline the measuring pass is fused with the
+ * per-pixel operations before it.
+ *
+ * @author Moksh Thakore
+ */
+public class AdaptiveOperation implements ImageOperation {
+
+    /** Fraction of the samples clipped at each end by an auto-contrast */
+    public static final double DEFAULT_CLIP = 0.005;
+
+    /** Stretches the samples so the darkest and brightest use the full range */
+    public static final AdaptiveOperation AUTO_CONTRAST = new AdaptiveOperation(false);
+
+    /** Thresholds the samples at the level chosen by Otsu's method */
+    public static final AdaptiveOperation OTSU_THRESHOLD = new AdaptiveOperation(true);
+
+    /** Whether the operation is a threshold rather than a contrast stretch */
+    private final boolean threshold;
+
+    /**
+     * Constructs an adaptive operation.
+     *
+     * @param threshold true for an Otsu threshold, false for an auto-contrast
+     */
+    private AdaptiveOperation(boolean threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Derives the point operation applied to an image.
+     *
+     * @param statistics statistics of the image
+     * @return point operation for the image
+     */
+    public PointOperation operationFor(ImageStatistics statistics) {
+        if (statistics == null) throw new IllegalArgumentException("Null statistics");
+        if (threshold) {
+            return PointOperation.threshold(statistics.getOtsuThreshold());
+        }
+        int low = statistics.getSamplePercentile(DEFAULT_CLIP);
+        int high = statistics.getSamplePercentile(1 - DEFAULT_CLIP);
+        if (high <= low) {
+            return PointOperation.of(value -> value);
+        }
+        double scale = 255.0 / (high - low);
+        return PointOperation.of(value -> (int) Math.round((value - low) * scale));
+    }
+
+    @Override
+    public PixelBuffer apply(PixelBuffer image, RowExecutor executor) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+        executor.execute(image, operationFor(ImageStatistics.of(image, executor)));
+        return image;
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The BatchProcessor class converts every PPM file in a directory, or every
+ * file matching a glob such as frames/*.ppm, into an output directory. Files
+ * are converted concurrently on a fixed-size pool within one JVM, and one
+ * line is reported per file. Existing output files are replaced or skipped
+ * according to the overwrite policy; batch mode never prompts. A file that
+ * fails, even with an Error, is reported and counted, and the rest of the
+ * batch goes on.
+ *
+ * @author Moksh Thakore
+ */
+public class BatchProcessor {
+
+    /**
+     * Lists the input files named by a directory or a glob.
+     *
+     * @param source directory, whose .ppm files are listed, or a glob whose
+     *               last name component holds the wildcards
+     * @return matching regular files, sorted by name
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<Path> findInputs(String source) throws IOException {
+        if (source == null) throw new IllegalArgumentException("Null file");
+
+        Path directory;
+        PathMatcher matcher;
+        Path path = Paths.get(source);
+        if (Files.isDirectory(path)) {
+            directory = path;
+            matcher = FileSystems.getDefault().getPathMatcher("glob:*.ppm");
+        } else {
+            directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+        }
+
+        List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry) && matcher.matches(entry.getFileName())) {
+                    inputs.add(entry);
+                }
+            }
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    /**
+     * Converts every input file into the output directory, which is created
+     * if needed, and reports the outcome of each file and a summary.
+     *
+     * @param options parsed batch options
+     * @param report stream receiving one line per file and a summary
+     * @return number of files that failed
+     */
+    public static int run(EditorOptions options, PrintStream report) {
+        if (options == null) throw new IllegalArgumentException("Null options");
+        if (report == null) throw new IllegalArgumentException("Null report");
+
+        List<Path> inputs;
+        Path outputDirectory = Paths.get(options.getOutput());
+        try {
+            inputs = findInputs(options.getInput());
+            Files.createDirectories(outputDirectory);
+        } catch (IOException e) {
+            report.println("Unable to access batch directories: " + e.getMessage());
+            return 1;
+        }
+
+        ImageConverter converter = new ImageConverter(options);
+        converter.getStats().register();
+        AtomicInteger converted = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.getJobs(),
+                                                                     Math.max(1, inputs.size())));
+        for (Path input : inputs) {
+            pool.execute(() -> {
+                File outputFile = outputDirectory.resolve(input.getFileName()).toFile();
+                String outcome;
+                if (outputFile.exists() && options.getOverwrite() != EditorOptions.Overwrite.ALWAYS) {
+                    skipped.incrementAndGet();
+                    outcome = "skipped, " + outputFile + " exists";
+                } else {
+                    String error;
+                    try {
+                        error = converter.convert(input.toFile(), outputFile);
+                    } catch (RuntimeException | Error e) {
+                        // Such as running out of memory on one huge file; the other files go on
+                        error = "Unexpected error: " + e;
+                    }
+                    if (error == null) {
+                        converted.incrementAndGet();
+                        outcome = "OK";
+                    } else {
+                        failed.incrementAndGet();
+                        outcome = error;
+                    }
+                }
+                synchronized (report) {
+                    report.println(input + ": " + outcome);
+                }
+            });
+        }
+
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting; a large frame can take a while
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        report.println(converted + " converted, " + skipped + " skipped, " + failed + " failed");
+        if (converter.getResultCache() != null) {
+            report.println(converter.getResultCache());
+        }
+        if (converter.getTileCache() != null) {
+            report.println(converter.getTileCache());
+        }
+        if (options.isStats()) {
+            report.println(converter.getStats());
+        }
+        return failed.get();
+    }
+}
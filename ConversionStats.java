@@ -0,0 +1,337 @@
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The ConversionStats class records where the time of a conversion goes:
+ * the wall time of each pipeline stage, the bytes read and written, the
+ * pixels processed and the bytes allocated by the calling thread, which
+ * leaves out whatever pool and pipeline threads allocate on its behalf. The
+ * counters are safe to update from many threads, can be printed as a summary
+ * and can be registered as a JMX MBean. Each timed stage is also committed
+ * as a JFR event, which costs next to nothing unless a recording is running.
+ *
+ * @author Moksh Thakore
+ */
+public class ConversionStats implements ConversionStatsMBean {
+
+    /**
+     * A timed part of a conversion.
+     */
+    public enum Stage {
+        /** Hashing the input and serving it from the result cache */
+        CACHE,
+        /** Parsing the input into a PixelBuffer */
+        READ,
+        /** Applying the operations */
+        PROCESS,
+        /** Encoding and writing the output */
+        WRITE,
+        /** Streaming or memory-mapped conversion, where the stages overlap */
+        PIPELINE
+    }
+
+    /** JMX name under which the statistics of a process are registered */
+    public static final String OBJECT_NAME = "imageeditor:type=ConversionStats";
+
+    /** Source of per-thread allocation counts, or null if not supported */
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    /** Total nanoseconds spent in each stage */
+    private final Map<Stage, LongAdder> nanos = new EnumMap<>(Stage.class);
+
+    /** Number of times each stage ran */
+    private final Map<Stage, LongAdder> calls = new EnumMap<>(Stage.class);
+
+    /** Number of successful conversions */
+    private final LongAdder conversions = new LongAdder();
+
+    /** Input bytes read */
+    private final LongAdder bytesRead = new LongAdder();
+
+    /** Output bytes written */
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /** Pixels processed */
+    private final LongAdder pixels = new LongAdder();
+
+    /** Bytes allocated by the calling threads */
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    /**
+     * Constructs empty statistics.
+     */
+    public ConversionStats() {
+        for (Stage stage : Stage.values()) {
+            nanos.put(stage, new LongAdder());
+            calls.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * Starts timing a stage on the calling thread.
+     *
+     * @param stage stage being timed
+     * @return timer to stop when the stage ends
+     */
+    public Timer start(Stage stage) {
+        return new Timer(stage);
+    }
+
+    /**
+     * Records a successful conversion.
+     *
+     * @param read input bytes read
+     * @param written output bytes written
+     * @param pixelCount pixels processed, or 0 if not known
+     */
+    public void recordConversion(long read, long written, long pixelCount) {
+        conversions.increment();
+        bytesRead.add(read);
+        bytesWritten.add(written);
+        pixels.add(pixelCount);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread.
+     *
+     * @return allocated bytes, or 0 if the JVM cannot measure allocation
+     */
+    public static long threadAllocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Records bytes allocated by the thread that called for a conversion.
+     *
+     * @param bytes allocated bytes
+     */
+    public void recordAllocation(long bytes) {
+        allocatedBytes.add(bytes);
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server under
+     * OBJECT_NAME, replacing any statistics registered before.
+     *
+     * @return true if registered
+     */
+    public boolean register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (ConversionStats.class) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+            }
+            return true;
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long getConversions() {
+        return conversions.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getPixels() {
+        return pixels.sum();
+    }
+
+    @Override
+    public long getCallerAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    @Override
+    public double getCacheMillis() {
+        return getMillis(Stage.CACHE);
+    }
+
+    @Override
+    public double getReadMillis() {
+        return getMillis(Stage.READ);
+    }
+
+    @Override
+    public double getProcessMillis() {
+        return getMillis(Stage.PROCESS);
+    }
+
+    @Override
+    public double getWriteMillis() {
+        return getMillis(Stage.WRITE);
+    }
+
+    @Override
+    public double getPipelineMillis() {
+        return getMillis(Stage.PIPELINE);
+    }
+
+    /**
+     * Returns the total wall time spent in a stage.
+     *
+     * @param stage stage
+     * @return milliseconds
+     */
+    public double getMillis(Stage stage) {
+        return nanos.get(stage).sum() / 1e6;
+    }
+
+    /**
+     * Returns the number of times a stage ran.
+     *
+     * @param stage stage
+     * @return number of calls
+     */
+    public long getCalls(Stage stage) {
+        return calls.get(stage).sum();
+    }
+
+    @Override
+    public void reset() {
+        for (Stage stage : Stage.values()) {
+            nanos.get(stage).reset();
+            calls.get(stage).reset();
+        }
+        conversions.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        pixels.reset();
+        allocatedBytes.reset();
+    }
+
+    /**
+     * Returns a summary of the stage timings and counters, one line per stage
+     * that ran followed by the totals.
+     *
+     * @return multi-line summary
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder(String.format("%-9s %8s %12s %10s%n",
+                                                                "Stage", "Calls", "Total ms", "Mean ms"));
+        for (Stage stage : Stage.values()) {
+            long count = calls.get(stage).sum();
+            if (count == 0) continue;
+            double total = getMillis(stage);
+            summary.append(String.format("%-9s %8d %12.3f %10.3f%n", stage.name().toLowerCase(), count,
+                                         total, total / count));
+        }
+        summary.append(String.format("%d conversions, %d bytes read, %d bytes written, %d pixels,"
+                                     + " %d bytes allocated by calling threads", getConversions(),
+                                     getBytesRead(), getBytesWritten(), getPixels(), getCallerAllocatedBytes()));
+        return summary.toString();
+    }
+
+    /**
+     * Returns the JVM's per-thread allocation counter.
+     *
+     * @return the counter, or null if the JVM does not support one
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                    return threads;
+                }
+            }
+        } catch (LinkageError | SecurityException e) {
+            // Allocation is reported as 0
+        }
+        return null;
+    }
+
+    /**
+     * Times one run of a stage and reports it as a JFR event.
+     */
+    public final class Timer {
+
+        /** Stage being timed */
+        private final Stage stage;
+
+        /** JFR event for the stage */
+        private final StageEvent event = new StageEvent();
+
+        /** Value of System.nanoTime when the stage started */
+        private final long startNanos;
+
+        /**
+         * Starts timing a stage.
+         *
+         * @param stage stage being timed
+         */
+        private Timer(Stage stage) {
+            this.stage = stage;
+            event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Stops timing the stage.
+         *
+         * @param bytes bytes read or written by the stage, or 0
+         * @param pixelCount pixels handled by the stage, or 0
+         */
+        public void stop(long bytes, long pixelCount) {
+            nanos.get(stage).add(System.nanoTime() - startNanos);
+            calls.get(stage).increment();
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name().toLowerCase();
+                event.bytes = bytes;
+                event.pixels = pixelCount;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * JFR event recorded for each timed stage.
+     */
+    @Name("imageeditor.Stage")
+    @Label("Image Editor Stage")
+    @Category("Image Editor")
+    @Description("One stage of converting a PPM image")
+    static class StageEvent extends Event {
+
+        /** Name of the stage */
+        @Label("Stage")
+        String stage;
+
+        /** Bytes read or written by the stage */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /** Pixels handled by the stage */
+        @Label("Pixels")
+        long pixels;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * The ConversionStatsMBean interface exposes the counters of a
+ * ConversionStats through JMX.
+ *
+ * @author Moksh Thakore
+ */
+public interface ConversionStatsMBean {
+
+    /**
+     * Returns the number of files or requests converted successfully.
+     *
+     * @return number of conversions
+     */
+    long getConversions();
+
+    /**
+     * Returns the number of input bytes read.
+     *
+     * @return bytes read
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the number of output bytes written.
+     *
+     * @return bytes written
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the number of pixels processed.
+     *
+     * @return pixels processed
+     */
+    long getPixels();
+
+    /**
+     * Returns the number of bytes allocated by the threads that called for
+     * the conversions; work done on pool or pipeline threads is not counted.
+     *
+     * @return bytes allocated, or 0 if the JVM cannot measure allocation
+     */
+    long getCallerAllocatedBytes();
+
+    /**
+     * Returns the total wall time spent hashing inputs and copying cached results.
+     *
+     * @return milliseconds
+     */
+    double getCacheMillis();
+
+    /**
+     * Returns the total wall time spent parsing input images.
+     *
+     * @return milliseconds
+     */
+    double getReadMillis();
+
+    /**
+     * Returns the total wall time spent applying operations.
+     *
+     * @return milliseconds
+     */
+    double getProcessMillis();
+
+    /**
+     * Returns the total wall time spent encoding and writing output images.
+     *
+     * @return milliseconds
+     */
+    double getWriteMillis();
+
+    /**
+     * Returns the total wall time spent streaming and memory-mapped conversions.
+     *
+     * @return milliseconds
+     */
+    double getPipelineMillis();
+
+    /**
+     * Clears every counter.
+     */
+    void reset();
+}
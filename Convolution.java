@@ -0,0 +1,277 @@
+import java.util.Arrays;
+
+/**
+ * The Convolution class applies a Kernel to every channel of an image, or
+ * two kernels combined as a gradient magnitude for edge detection. Pixels
+ * beyond the edges of the image are taken to repeat the nearest edge pixel.
+ * The image is processed in bands of rows, in parallel on the RowExecutor,
+ * and each band is filtered a few rows at a time so that the intermediate
+ * results stay in the cache. Separable kernels are applied as a horizontal
+ * pass followed by a vertical pass; each band keeps a ring of the last few
+ * horizontally filtered rows, so every source row is filtered horizontally
+ * once per band whatever the radius of the kernel.
+ *
+ * @author Moksh Thakore
+ */
+public class Convolution implements ImageOperation {
+
+    /** Number of output rows filtered together within a band */
+    static final int BLOCK_ROWS = 16;
+
+    /** Kernel applied to the image */
+    private final Kernel kernel;
+
+    /** Second kernel combined with the first as a gradient magnitude, or null */
+    private final Kernel gradient;
+
+    /**
+     * Constructs a convolution with a kernel.
+     *
+     * @param kernel kernel to apply
+     */
+    public Convolution(Kernel kernel) {
+        this(kernel, null);
+    }
+
+    /**
+     * Constructs a convolution.
+     *
+     * @param kernel kernel to apply
+     * @param gradient second kernel giving the other component of a gradient, or null
+     */
+    private Convolution(Kernel kernel, Kernel gradient) {
+        if (kernel == null) throw new IllegalArgumentException("Null kernel");
+        this.kernel = kernel;
+        this.gradient = gradient;
+    }
+
+    /**
+     * Creates a Gaussian blur.
+     *
+     * @param radius radius of the blur in pixels
+     * @return blur operation
+     */
+    public static Convolution blur(int radius) {
+        return new Convolution(Kernel.gaussian(radius));
+    }
+
+    /**
+     * Creates a sharpening operation.
+     *
+     * @return sharpen operation
+     */
+    public static Convolution sharpen() {
+        return new Convolution(Kernel.SHARPEN);
+    }
+
+    /**
+     * Creates a Sobel edge detector, which replaces each sample with the
+     * magnitude of the gradient of its channel, clamped to 255.
+     *
+     * @return edge detection operation
+     */
+    public static Convolution sobel() {
+        return new Convolution(Kernel.SOBEL_X, Kernel.SOBEL_Y);
+    }
+
+    /**
+     * Returns the largest distance, across or down, between a pixel and the
+     * pixels read to filter it.
+     *
+     * @return radius of the larger kernel
+     */
+    int getRadius() {
+        int size = Math.max(kernel.getWidth(), kernel.getHeight());
+        if (gradient != null) {
+            size = Math.max(size, Math.max(gradient.getWidth(), gradient.getHeight()));
+        }
+        return size / 2;
+    }
+
+    @Override
+    public PixelBuffer apply(PixelBuffer image, RowExecutor executor) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+
+        PixelBuffer result = new PixelBuffer(image.getWidth(), image.getHeight());
+        int radius = Math.max(kernel.getWidth(), gradient == null ? 1 : gradient.getWidth()) / 2;
+        int kernelRows = Math.max(kernel.getHeight(), gradient == null ? 1 : gradient.getHeight());
+        int[] columns = clampedColumns(image.getWidth(), radius);
+        executor.forEachBand(image, (fromRow, toRow) -> {
+            int rowLength = image.getRowLength();
+            float[] first = new float[BLOCK_ROWS * rowLength];
+            float[] second = gradient == null ? null : new float[BLOCK_ROWS * rowLength];
+            float[] firstRing = new float[kernelRows * rowLength];
+            float[] secondRing = gradient == null ? null : new float[kernelRows * rowLength];
+            for (int row = fromRow; row < toRow; row += BLOCK_ROWS) {
+                int rows = Math.min(BLOCK_ROWS, toRow - row);
+                filter(image, kernel, columns, radius, row, rows, row == fromRow, first, firstRing);
+                if (gradient != null) {
+                    filter(image, gradient, columns, radius, row, rows, row == fromRow, second, secondRing);
+                }
+                store(result, row, rows, first, second);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Builds the table of sample offsets of the columns read by a kernel,
+     * repeating the edge columns beyond the image.
+     *
+     * @param width width of the image
+     * @param radius largest horizontal distance read from a pixel
+     * @return table where entry x + radius is the offset of column x, clamped
+     */
+    private static int[] clampedColumns(int width, int radius) {
+        int[] columns = new int[width + 2 * radius];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Math.min(Math.max(i - radius, 0), width - 1) * 3;
+        }
+        return columns;
+    }
+
+    /**
+     * Convolves a block of rows with a kernel.
+     *
+     * @param image source image
+     * @param kernel kernel to apply
+     * @param columns clamped column offsets from clampedColumns
+     * @param radius radius the column table was built for
+     * @param fromRow first output row
+     * @param rows number of output rows
+     * @param bandStart whether the block is the first of its band, so the ring is empty
+     * @param out receives rows * rowLength filtered samples
+     * @param ring horizontally filtered rows of a separable kernel, one per
+     *             kernel row, carried from one block of the band to the next
+     */
+    private static void filter(PixelBuffer image, Kernel kernel, int[] columns, int radius,
+                               int fromRow, int rows, boolean bandStart, float[] out, float[] ring) {
+        byte[] data = image.getData();
+        int width = image.getWidth();
+        int rowLength = image.getRowLength();
+        int kernelRadiusX = kernel.getWidth() / 2;
+        int kernelRadiusY = kernel.getHeight() / 2;
+        Arrays.fill(out, 0, rows * rowLength, 0f);
+
+        if (kernel.isSeparable()) {
+            float[] horizontal = kernel.horizontal();
+            float[] vertical = kernel.vertical();
+            int column = radius - kernelRadiusX;
+            if (bandStart) {
+                // Every row the first output row reads but the last one
+                for (int source = fromRow - kernelRadiusY; source < fromRow + kernelRadiusY; source++) {
+                    filterRow(image, horizontal, columns, column, source, ring, vertical.length);
+                }
+            }
+            for (int y = 0; y < rows; y++) {
+                // The new row replaces the one the previous output row read first
+                int row = fromRow + y;
+                filterRow(image, horizontal, columns, column, row + kernelRadiusY, ring, vertical.length);
+
+                // Vertical pass, one kernel row at a time so the inner loop runs along a row
+                int target = y * rowLength;
+                for (int k = 0; k < vertical.length; k++) {
+                    float weight = vertical[k];
+                    int source = Math.floorMod(row - kernelRadiusY + k, vertical.length) * rowLength;
+                    for (int i = 0; i < rowLength; i++) {
+                        out[target + i] += weight * ring[source + i];
+                    }
+                }
+            }
+            return;
+        }
+
+        float[] weights = kernel.weights();
+        for (int y = 0; y < rows; y++) {
+            int target = y * rowLength;
+            for (int ky = 0; ky < kernel.getHeight(); ky++) {
+                int base = image.rowOffset(clampRow(fromRow + y - kernelRadiusY + ky, image.getHeight()));
+                for (int kx = 0; kx < kernel.getWidth(); kx++) {
+                    float weight = weights[ky * kernel.getWidth() + kx];
+                    if (weight == 0) continue;
+                    int column = radius - kernelRadiusX + kx;
+                    for (int x = 0; x < width; x++) {
+                        int sample = base + columns[x + column];
+                        out[target + x * 3] += weight * (data[sample] & 0xFF);
+                        out[target + x * 3 + 1] += weight * (data[sample + 1] & 0xFF);
+                        out[target + x * 3 + 2] += weight * (data[sample + 2] & 0xFF);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the horizontal pass of a separable kernel to one source row,
+     * storing it in the slot of the ring that the row maps to.
+     *
+     * @param image source image
+     * @param horizontal weights of the horizontal pass
+     * @param columns clamped column offsets from clampedColumns
+     * @param column index in columns of the first column read for pixel 0
+     * @param row source row, possibly outside the image
+     * @param ring horizontally filtered rows
+     * @param ringRows number of rows the ring holds
+     */
+    private static void filterRow(PixelBuffer image, float[] horizontal, int[] columns, int column, int row,
+                                  float[] ring, int ringRows) {
+        byte[] data = image.getData();
+        int width = image.getWidth();
+        int base = image.rowOffset(clampRow(row, image.getHeight()));
+        int target = Math.floorMod(row, ringRows) * image.getRowLength();
+        for (int x = 0; x < width; x++) {
+            float red = 0;
+            float green = 0;
+            float blue = 0;
+            for (int k = 0; k < horizontal.length; k++) {
+                int sample = base + columns[x + column + k];
+                float weight = horizontal[k];
+                red += weight * (data[sample] & 0xFF);
+                green += weight * (data[sample + 1] & 0xFF);
+                blue += weight * (data[sample + 2] & 0xFF);
+            }
+            ring[target + x * 3] = red;
+            ring[target + x * 3 + 1] = green;
+            ring[target + x * 3 + 2] = blue;
+        }
+    }
+
+    /**
+     * Rounds and clamps filtered samples into the result image.
+     *
+     * @param result image receiving the samples
+     * @param fromRow first row of the block
+     * @param rows number of rows in the block
+     * @param first filtered samples
+     * @param second second gradient component, or null to store first as is
+     */
+    private static void store(PixelBuffer result, int fromRow, int rows, float[] first, float[] second) {
+        byte[] data = result.getData();
+        int rowLength = result.getRowLength();
+        for (int y = 0; y < rows; y++) {
+            int target = result.rowOffset(fromRow + y);
+            int source = y * rowLength;
+            for (int i = 0; i < rowLength; i++) {
+                float value = first[source + i];
+                if (second != null) {
+                    float other = second[source + i];
+                    value = (float) Math.sqrt(value * value + other * other);
+                }
+                int rounded = (int) (value + 0.5f);
+                data[target + i] = (byte) (rounded < 0 ? 0 : rounded > 255 ? 255 : rounded);
+            }
+        }
+    }
+
+    /**
+     * Clamps a row index to the image.
+     *
+     * @param row row index, possibly outside the image
+     * @param height number of rows
+     * @return nearest row inside the image
+     */
+    private static int clampRow(int row, int height) {
+        return row < 0 ? 0 : row >= height ? height - 1 : row;
+    }
+}
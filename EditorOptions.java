@@ -0,0 +1,570 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The EditorOptions class parses and holds the command-line options of
+ * ImageEditor: the options starting with "--", the chain of operation flags,
+ * and the input and output names. Invalid command lines are reported with an
+ * IllegalArgumentException whose message is meant to be shown to the user.
+ *
+ * @author Moksh Thakore
+ */
+public class EditorOptions {
+
+    /**
+     * What to do when an output file already exists.
+     */
+    public enum Overwrite {
+        /** Ask on the console before overwriting */
+        ASK,
+        /** Overwrite without asking */
+        ALWAYS,
+        /** Leave the existing file alone */
+        NEVER
+    }
+
+    /** Usage message for the command-line utility */
+    static final String USAGE =
+        "Usage: java -cp bin ImageEditor [--format=P3|P6] [--threads=N] [--parallel-threshold=PIXELS]"
+        + " [--mmap|--stream|--tile-cache=MB] [--cache|--cache-dir=DIR] [--cache-size=MB]"
+        + " [--overwrite=ask|yes|no] [--stats] [--histogram] [--preview=N|--batch [--jobs=N]]"
+        + " {-I|-H|-H=otsu|-G|-G=MODEL|-autocontrast|-brightness=N|-gamma=G|-threshold=T|-posterize=L"
+        + "|-blur=R|-sharpen|-sobel|-resize=WxH[:nearest|bilinear|box]}..."
+        + " infile outfile\n"
+        + "       java -cp bin ImageEditor --histogram [--threads=N] [--stats] infile\n"
+        + "       java -cp bin ImageEditor --server=PORT [--format=P3|P6] [--threads=N]"
+        + " [--parallel-threshold=PIXELS] [--jobs=N] [--max-pixels=N]";
+
+    /** Output format, P3 or P6 */
+    private String outputFormat;
+
+    /** Whether to process P6 files through memory mappings */
+    private boolean mapped;
+
+    /** Whether to stream the file a band of rows at a time */
+    private boolean streaming;
+
+    /** Whether the input and output name a set of files and a directory */
+    private boolean batch;
+
+    /** Port to serve requests on, or -1 when not running as a server */
+    private int serverPort = -1;
+
+    /** Largest image the server accepts, in pixels, or -1 if not given */
+    private int maxPixels = -1;
+
+    /** Memory budget of the tile cache in megabytes, or 0 for no cache */
+    private int tileCacheMegabytes;
+
+    /** Whether converted files are cached on disk */
+    private boolean caching;
+
+    /** Whether --no-cache was given */
+    private boolean noCache;
+
+    /** Directory of the result cache, or null for the default */
+    private String cacheDirectory;
+
+    /** Size limit of the result cache in megabytes */
+    private int cacheMegabytes = (int) (ResultCache.DEFAULT_CAPACITY >> 20);
+
+    /** Whether to print the stage timings and counters */
+    private boolean stats;
+
+    /** Whether to print the histogram statistics of the output image */
+    private boolean histogram;
+
+    /** Distance between the rows and columns sampled for a preview, or 0 for no preview */
+    private int previewStep;
+
+    /** Threads per image */
+    private int threads = 1;
+
+    /** Pixels below which an image is processed serially */
+    private int threshold = RowExecutor.DEFAULT_THRESHOLD;
+
+    /** Files converted at once in batch mode, or requests handled at once by the server */
+    private int jobs = Runtime.getRuntime().availableProcessors();
+
+    /** What to do when an output file exists */
+    private Overwrite overwrite;
+
+    /** Operation flags in the order given */
+    private final List<String> operationFlags = new ArrayList<>();
+
+    /** Operations in the order given, with per-pixel runs fused */
+    private ImagePipeline pipeline;
+
+    /** Fused operation chain, or null if the pipeline reads neighbouring pixels */
+    private PixelOperation operation;
+
+    /** Input file, or input directory or glob in batch mode */
+    private String input;
+
+    /** Output file, or output directory in batch mode */
+    private String output;
+
+    /**
+     * Parses a command line.
+     *
+     * @param args command-line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException with the message to show if the
+     *         command line is invalid
+     */
+    public static EditorOptions parse(String[] args) {
+        EditorOptions options = new EditorOptions();
+        int argIndex = 0;
+        while (argIndex < args.length && args[argIndex].startsWith("--")) {
+            options.parseOption(args[argIndex++]);
+        }
+
+        if (options.isServer()) {
+            // Operations and formats come with each request
+            if (argIndex != args.length || options.mapped || options.streaming || options.batch
+                || options.overwrite != null || options.histogram || options.previewStep > 0
+                || options.tileCacheMegabytes > 0) {
+                throw new IllegalArgumentException(USAGE);
+            }
+            return options;
+        }
+
+        if (options.histogram && args.length - argIndex == 1) {
+            // Statistics of the input alone, with nothing written
+            if (options.mapped || options.streaming || options.batch || options.overwrite != null
+                || options.caching || options.previewStep > 0 || options.tileCacheMegabytes > 0
+                || options.maxPixels >= 0) {
+                throw new IllegalArgumentException(USAGE);
+            }
+            options.input = args[argIndex];
+            return options;
+        }
+
+        if (args.length - argIndex < 3 || options.maxPixels >= 0) {
+            throw new IllegalArgumentException(USAGE);
+        }
+
+        // Check that every flag is valid
+        List<ImageOperation> chain = new ArrayList<>();
+        for (int i = argIndex; i < args.length - 2; i++) {
+            ImageOperation operation = imageOperationFor(args[i]);
+            if (operation == null) {
+                throw new IllegalArgumentException(USAGE);
+            }
+            chain.add(operation);
+            options.operationFlags.add(args[i]);
+        }
+        options.pipeline = new ImagePipeline(chain);
+        options.operation = options.pipeline.getPixelOperation();
+        options.input = args[args.length - 2];
+        options.output = args[args.length - 1];
+
+        if (options.mapped && options.streaming) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        if ((options.noCache && options.caching) || (options.histogram && options.batch)) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        if (options.previewStep > 0 && (options.batch || options.mapped || options.streaming)) {
+            throw new IllegalArgumentException("A preview needs a single conversion in memory");
+        }
+        if (options.operation == null && options.streaming && !options.pipeline.canReadResized()) {
+            throw new IllegalArgumentException("Only per-pixel operations and a box resize can be streamed");
+        }
+        if (options.operation == null && options.mapped) {
+            throw new IllegalArgumentException(
+                "Neighbourhood, adaptive and resize operations need whole images in memory");
+        }
+        if (options.tileCacheMegabytes > 0 && (options.mapped || options.streaming)) {
+            throw new IllegalArgumentException("The tile cache needs whole images in memory");
+        }
+        if (options.tileCacheMegabytes > 0 && !options.pipeline.hasConvolution()) {
+            throw new IllegalArgumentException("The tile cache only speeds up -blur, -sharpen and -sobel");
+        }
+        if (options.mapped && "P3".equals(options.outputFormat)) {
+            throw new IllegalArgumentException("Memory-mapped mode writes P6 output");
+        }
+        if (options.overwrite == null) {
+            options.overwrite = options.batch ? Overwrite.NEVER : Overwrite.ASK;
+        } else if (options.batch && options.overwrite == Overwrite.ASK) {
+            throw new IllegalArgumentException("Batch mode cannot ask before overwriting");
+        }
+        return options;
+    }
+
+    /**
+     * Parses one option starting with "--".
+     *
+     * @param option the option
+     */
+    private void parseOption(String option) {
+        if (option.equals("--format=P3") || option.equals("--format=P6")) {
+            outputFormat = option.substring("--format=".length());
+        } else if (option.equals("--mmap")) {
+            mapped = true;
+        } else if (option.equals("--stream")) {
+            streaming = true;
+        } else if (option.equals("--batch")) {
+            batch = true;
+        } else if (option.startsWith("--server=")) {
+            serverPort = parseCount(option.substring("--server=".length()));
+            if (serverPort < 0 || serverPort > 0xFFFF) throw new IllegalArgumentException(USAGE);
+        } else if (option.startsWith("--max-pixels=")) {
+            maxPixels = parseCount(option.substring("--max-pixels=".length()));
+            if (maxPixels <= 0) throw new IllegalArgumentException(USAGE);
+        } else if (option.startsWith("--tile-cache=")) {
+            tileCacheMegabytes = parseCount(option.substring("--tile-cache=".length()));
+            if (tileCacheMegabytes <= 0) throw new IllegalArgumentException(USAGE);
+        } else if (option.equals("--stats")) {
+            stats = true;
+        } else if (option.startsWith("--preview=")) {
+            previewStep = parseCount(option.substring("--preview=".length()));
+            if (previewStep < 2) throw new IllegalArgumentException(USAGE);
+        } else if (option.equals("--histogram")) {
+            histogram = true;
+        } else if (option.equals("--cache")) {
+            caching = true;
+        } else if (option.equals("--no-cache")) {
+            noCache = true;
+        } else if (option.startsWith("--cache-dir=") && option.length() > "--cache-dir=".length()) {
+            caching = true;
+            cacheDirectory = option.substring("--cache-dir=".length());
+        } else if (option.startsWith("--cache-size=")) {
+            cacheMegabytes = parseCount(option.substring("--cache-size=".length()));
+            if (cacheMegabytes < 0) throw new IllegalArgumentException(USAGE);
+        } else if (option.startsWith("--threads=")) {
+            threads = parseCount(option.substring("--threads=".length()));
+            if (threads <= 0) throw new IllegalArgumentException(USAGE);
+        } else if (option.startsWith("--parallel-threshold=")) {
+            threshold = parseCount(option.substring("--parallel-threshold=".length()));
+            if (threshold < 0) throw new IllegalArgumentException(USAGE);
+        } else if (option.startsWith("--jobs=")) {
+            jobs = parseCount(option.substring("--jobs=".length()));
+            if (jobs <= 0) throw new IllegalArgumentException(USAGE);
+        } else if (option.equals("--overwrite=ask")) {
+            overwrite = Overwrite.ASK;
+        } else if (option.equals("--overwrite=yes")) {
+            overwrite = Overwrite.ALWAYS;
+        } else if (option.equals("--overwrite=no")) {
+            overwrite = Overwrite.NEVER;
+        } else {
+            throw new IllegalArgumentException(USAGE);
+        }
+    }
+
+    /**
+     * Returns the operation selected by a command-line flag.
+     *
+     * @param flag operation flag
+     * @return the operation, or null if the flag or its value is not valid
+     */
+    static PixelOperation operationFor(String flag) {
+        switch (flag) {
+            case "-I":
+                return PointOperation.INVERT;
+            case "-H":
+                return PointOperation.HIGH_CONTRAST;
+            case "-G":
+                return PixelOperation.GREY_SCALE;
+            default:
+                break;
+        }
+
+        int equals = flag.indexOf('=');
+        if (equals < 0) return null;
+        String name = flag.substring(0, equals);
+        String value = flag.substring(equals + 1);
+        try {
+            switch (name) {
+                case "-brightness":
+                    return PointOperation.brightness(Integer.parseInt(value));
+                case "-gamma":
+                    return PointOperation.gamma(Double.parseDouble(value));
+                case "-threshold":
+                    return PointOperation.threshold(Integer.parseInt(value));
+                case "-posterize":
+                    return PointOperation.posterize(Integer.parseInt(value));
+                case "-G":
+                    return GreyModel.forName(value);
+                default:
+                    return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the operation selected by a command-line flag, including the
+     * operations that read neighbouring pixels.
+     *
+     * @param flag operation flag
+     * @return the operation, or null if the flag or its value is not valid
+     */
+    static ImageOperation imageOperationFor(String flag) {
+        PixelOperation pixelOperation = operationFor(flag);
+        if (pixelOperation != null) {
+            return ImageOperation.of(pixelOperation);
+        }
+        switch (flag) {
+            case "-sharpen":
+                return Convolution.sharpen();
+            case "-sobel":
+                return Convolution.sobel();
+            case "-autocontrast":
+                return AdaptiveOperation.AUTO_CONTRAST;
+            case "-H=otsu":
+                return AdaptiveOperation.OTSU_THRESHOLD;
+            default:
+                break;
+        }
+        if (flag.startsWith("-resize=")) {
+            return resizeFor(flag.substring("-resize=".length()));
+        }
+        if (flag.startsWith("-blur=")) {
+            int radius = parseCount(flag.substring("-blur=".length()));
+            return radius >= 1 && radius <= Kernel.MAX_RADIUS ? Convolution.blur(radius) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Parses the value of a -resize flag, WIDTHxHEIGHT with an optional
+     * ":nearest", ":bilinear" or ":box" suffix. The default mode is box.
+     *
+     * @param value flag value
+     * @return the resize operation, or null if the value is not valid
+     */
+    private static Resize resizeFor(String value) {
+        Resize.Mode mode = Resize.Mode.BOX;
+        int colon = value.indexOf(':');
+        if (colon >= 0) {
+            try {
+                mode = Resize.Mode.valueOf(value.substring(colon + 1).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            value = value.substring(0, colon);
+        }
+        int x = value.indexOf('x');
+        if (x < 0) return null;
+        int width = parseCount(value.substring(0, x));
+        int height = parseCount(value.substring(x + 1));
+        if (!Resize.isValidSize(width, height)) return null;
+        return new Resize(width, height, mode);
+    }
+
+    /**
+     * Parses a non-negative decimal count from a command-line option.
+     *
+     * @param text option value
+     * @return the count, or -1 if the value is not a non-negative integer
+     */
+    static int parseCount(String text) {
+        try {
+            int count = Integer.parseInt(text);
+            return count < 0 ? -1 : count;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns whether the output is written as binary (P6).
+     *
+     * @return true for P6 output
+     */
+    public boolean isBinaryOutput() {
+        return mapped || "P6".equals(outputFormat);
+    }
+
+    /**
+     * Returns whether P6 files are processed through memory mappings.
+     *
+     * @return true for --mmap
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Returns whether files are streamed a band of rows at a time.
+     *
+     * @return true for --stream
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Returns whether the input and output name a set of files and a directory.
+     *
+     * @return true for --batch
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * Returns whether the editor runs as a resident server.
+     *
+     * @return true for --server
+     */
+    public boolean isServer() {
+        return serverPort >= 0;
+    }
+
+    /**
+     * Returns the port to serve requests on.
+     *
+     * @return port given by --server, 0 for any free port, or -1 if not a server
+     */
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * Returns the largest image the server accepts.
+     *
+     * @return pixels given by --max-pixels, or ImageServer.DEFAULT_MAX_PIXELS
+     */
+    public long getMaxPixels() {
+        return maxPixels < 0 ? ImageServer.DEFAULT_MAX_PIXELS : maxPixels;
+    }
+
+    /**
+     * Returns whether to print the stage timings and counters.
+     *
+     * @return true for --stats
+     */
+    public boolean isStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the distance between the rows and columns sampled for a preview.
+     *
+     * @return the step given with --preview, or 0 for no preview
+     */
+    public int getPreviewStep() {
+        return previewStep;
+    }
+
+    /**
+     * Returns whether to print the histogram statistics of the output image.
+     *
+     * @return true for --histogram
+     */
+    public boolean isHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Returns whether only the statistics of the input are wanted, with no
+     * operations and no output file.
+     *
+     * @return true for --histogram with just an input file
+     */
+    public boolean isHistogramOnly() {
+        return histogram && input != null && output == null;
+    }
+
+    /**
+     * Returns the number of files converted at once in batch mode, or the
+     * number of requests handled at once by the server.
+     *
+     * @return number of concurrent conversions
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Returns what to do when an output file exists.
+     *
+     * @return overwrite policy
+     */
+    public Overwrite getOverwrite() {
+        return overwrite;
+    }
+
+    /**
+     * Returns the memory budget of the tile cache.
+     *
+     * @return budget in bytes given by --tile-cache, or 0 for no cache
+     */
+    public long getTileCacheSize() {
+        return (long) tileCacheMegabytes << 20;
+    }
+
+    /**
+     * Returns the cache of converted files.
+     *
+     * @return result cache in the configured directory, or null unless
+     *         --cache or --cache-dir was given
+     */
+    public ResultCache getResultCache() {
+        if (!caching) return null;
+        Path directory = cacheDirectory == null ? ResultCache.defaultDirectory() : Paths.get(cacheDirectory);
+        return new ResultCache(directory, (long) cacheMegabytes << 20);
+    }
+
+    /**
+     * Returns an executor for the configured threads and threshold.
+     *
+     * @return row executor
+     */
+    public RowExecutor getExecutor() {
+        return new RowExecutor(threads, threshold);
+    }
+
+    /**
+     * Returns the operation flags in the order given.
+     *
+     * @return unmodifiable list of flags
+     */
+    public List<String> getOperationFlags() {
+        return Collections.unmodifiableList(operationFlags);
+    }
+
+    /**
+     * Returns the fused operation chain, for the paths that process part of
+     * an image at a time.
+     *
+     * @return operation to apply, or null if the operations read
+     *         neighbouring pixels
+     */
+    public PixelOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns every operation in the order given.
+     *
+     * @return pipeline to apply to a whole image, or null for --histogram alone
+     */
+    public ImagePipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Returns the input file, or the input directory or glob in batch mode.
+     *
+     * @return input name, or null for a server
+     */
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the output file, or the output directory in batch mode.
+     *
+     * @return output name, or null for a server or --histogram alone
+     */
+    public String getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * A GreyModel converts pixels to grey by one of several formulas: the plain
+ * average of the channels, the Rec. 601 or Rec. 709 luma, the lightness
+ * (the mean of the largest and smallest channel), or one channel alone. The
+ * weighted models use 16-bit fixed-point integer weights that sum to exactly
+ * one, so they cost a few integer multiplications per pixel, like the
+ * average, and white stays white.
+ *
+ * @author Moksh Thakore
+ */
+public enum GreyModel implements PixelOperation {
+
+    /** The integer average of the channels, as GREY_SCALE */
+    AVERAGE(0, 0, 0),
+
+    /** Rec. 601 luma: 0.299 R + 0.587 G + 0.114 B */
+    REC601(0.299, 0.587, 0.114),
+
+    /** Rec. 709 luma: 0.2126 R + 0.7152 G + 0.0722 B */
+    REC709(0.2126, 0.7152, 0.0722),
+
+    /** The mean of the largest and smallest channel */
+    LIGHTNESS(0, 0, 0),
+
+    /** The red channel */
+    RED(1, 0, 0),
+
+    /** The green channel */
+    GREEN(0, 1, 0),
+
+    /** The blue channel */
+    BLUE(0, 0, 1);
+
+    /** Number of fractional bits of the fixed-point weights */
+    private static final int SHIFT = 16;
+
+    /** Fixed-point weight of red */
+    private final int red;
+
+    /** Fixed-point weight of green */
+    private final int green;
+
+    /** Fixed-point weight of blue */
+    private final int blue;
+
+    /**
+     * Constructs a model from its channel weights.
+     *
+     * @param red weight of red
+     * @param green weight of green
+     * @param blue weight of blue
+     */
+    GreyModel(double red, double green, double blue) {
+        this.red = (int) Math.round(red * (1 << SHIFT));
+        this.blue = (int) Math.round(blue * (1 << SHIFT));
+        // Green takes the rounding error, so the weights of a weighted model sum to exactly one
+        this.green = red + green + blue == 0 ? 0 : (1 << SHIFT) - this.red - this.blue;
+    }
+
+    /**
+     * Returns the grey value of one pixel under a weighted model.
+     *
+     * @param r red sample from 0 to 255
+     * @param g green sample from 0 to 255
+     * @param b blue sample from 0 to 255
+     * @return grey value from 0 to 255
+     */
+    int luma(int r, int g, int b) {
+        return (red * r + green * g + blue * b + (1 << (SHIFT - 1))) >>> SHIFT;
+    }
+
+    @Override
+    public void apply(byte[] data, int offset, int length) {
+        switch (this) {
+            case AVERAGE:
+                PixelOperation.GREY_SCALE.apply(data, offset, length);
+                return;
+            case LIGHTNESS:
+                for (int i = offset; i < offset + length; i += 3) {
+                    int r = data[i] & 0xFF;
+                    int g = data[i + 1] & 0xFF;
+                    int b = data[i + 2] & 0xFF;
+                    int lightness = (Math.max(r, Math.max(g, b)) + Math.min(r, Math.min(g, b))) / 2;
+                    data[i] = data[i + 1] = data[i + 2] = (byte) lightness;
+                }
+                return;
+            default:
+                for (int i = offset; i < offset + length; i += 3) {
+                    int grey = luma(data[i] & 0xFF, data[i + 1] & 0xFF, data[i + 2] & 0xFF);
+                    data[i] = data[i + 1] = data[i + 2] = (byte) grey;
+                }
+        }
+    }
+
+    /**
+     * Returns the model with a name as given on the command line, such as
+     * "rec709", in any case.
+     *
+     * @param name model name
+     * @return the model, or null if there is none of that name
+     */
+    public static GreyModel forName(String name) {
+        if (name == null) throw new IllegalArgumentException("Null name");
+        for (GreyModel model : values()) {
+            if (model.name().equalsIgnoreCase(name)) return model;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,393 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The ImageConverter class converts one PPM file into another according to
+ * a set of EditorOptions, using the memory-mapped, streaming or in-memory
+ * path. Problems are returned as the message to report for the file, so the
+ * same converter serves a single conversion and a batch of them.
+ *
+ * @author Moksh Thakore
+ */
+public class ImageConverter {
+
+    /** Options controlling the conversion */
+    private final EditorOptions options;
+
+    /** Executor for the in-memory path */
+    private final RowExecutor executor;
+
+    /** Timings and counters of the conversions */
+    private final ConversionStats stats = new ConversionStats();
+
+    /** Cache of converted files, or null */
+    private final ResultCache resultCache;
+
+    /** Cache of transformed tiles shared by every conversion, or null */
+    private final TileCache tileCache;
+
+    /** Operations to apply in memory, with convolutions going through the tile cache if there is one */
+    private final ImagePipeline pipeline;
+
+    /** Statistics of the last image converted with --histogram, or null */
+    private volatile ImageStatistics imageStatistics;
+
+    /**
+     * Constructs a converter.
+     *
+     * @param options options controlling the conversion
+     */
+    public ImageConverter(EditorOptions options) {
+        if (options == null) throw new IllegalArgumentException("Null options");
+        this.options = options;
+        this.executor = options.getExecutor();
+        this.resultCache = options.getResultCache();
+        this.tileCache = options.getTileCacheSize() > 0 ? new TileCache(options.getTileCacheSize()) : null;
+        this.pipeline = tileCache == null ? options.getPipeline() : options.getPipeline().withTileCache(tileCache);
+    }
+
+    /**
+     * Returns the timings and counters of the conversions made so far.
+     *
+     * @return statistics shared by every conversion
+     */
+    public ConversionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the cache of converted files.
+     *
+     * @return the cache, or null unless --cache or --cache-dir was given
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns the tile cache shared by the conversions.
+     *
+     * @return the cache, or null if --tile-cache was not given
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * Returns the statistics of the last output image when --histogram was
+     * given, or of the last file analysed.
+     *
+     * @return the statistics, or null if none were gathered
+     */
+    public ImageStatistics getImageStatistics() {
+        return imageStatistics;
+    }
+
+    /**
+     * Converts a file, copying the output from the result cache when the same
+     * input was converted with the same operations before. The caller has
+     * already decided that an existing output file may be replaced.
+     *
+     * @param inputFile PPM file to read
+     * @param outputFile PPM file to write
+     * @return null on success, or the message describing the failure
+     */
+    public String convert(File inputFile, File outputFile) {
+        long allocated = ConversionStats.threadAllocatedBytes();
+        try {
+            return convertCached(inputFile, outputFile);
+        } finally {
+            stats.recordAllocation(ConversionStats.threadAllocatedBytes() - allocated);
+        }
+    }
+
+    /**
+     * Reads a file and gathers its statistics without writing anything; they
+     * are returned by getImageStatistics.
+     *
+     * @param inputFile PPM or PXB file to read
+     * @return null on success, or the message describing the failure
+     */
+    public String analyse(File inputFile) {
+        PixelBuffer pixels;
+        ConversionStats.Timer timer = stats.start(ConversionStats.Stage.READ);
+        try {
+            pixels = ParallelPpmDecoder.read(inputFile.toPath(), executor);
+        } catch (IOException e) {
+            pixels = null;
+        }
+        if (pixels == null) {
+            return "Invalid input file";
+        }
+        long pixelCount = (long) pixels.getWidth() * pixels.getHeight();
+        timer.stop(inputFile.length(), pixelCount);
+
+        timer = stats.start(ConversionStats.Stage.PROCESS);
+        imageStatistics = ImageStatistics.of(pixels, executor);
+        timer.stop(0, pixelCount);
+        return null;
+    }
+
+    /**
+     * Converts a file through the result cache, if there is one.
+     *
+     * @param inputFile PPM file to read
+     * @param outputFile PPM file to write
+     * @return null on success, or the message describing the failure
+     */
+    private String convertCached(File inputFile, File outputFile) {
+        if (resultCache == null || options.isHistogram()) {
+            // A cached copy would skip the pass that gathers the statistics
+            return process(inputFile, outputFile);
+        }
+
+        String key;
+        ConversionStats.Timer timer = stats.start(ConversionStats.Stage.CACHE);
+        try {
+            String format = PxbFormat.isPxbName(outputFile.getName()) ? "PXB"
+                            : options.isBinaryOutput() ? "P6" : "P3";
+            key = resultCache.key(inputFile.toPath(), options.getOperationFlags(), format);
+            if (resultCache.copyTo(key, outputFile.toPath())) {
+                timer.stop(outputFile.length(), 0);
+                stats.recordConversion(inputFile.length(), outputFile.length(), 0);
+                return null;
+            }
+            timer.stop(0, 0);
+        } catch (IOException e) {
+            // Convert without the cache
+            timer.stop(0, 0);
+            return process(inputFile, outputFile);
+        }
+
+        String error = process(inputFile, outputFile);
+        if (error == null) {
+            try {
+                resultCache.store(key, outputFile.toPath());
+            } catch (IOException e) {
+                // The conversion succeeded; it just is not cached
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Converts a file without the result cache, timing each stage.
+     *
+     * @param inputFile PPM file to read
+     * @param outputFile PPM file to write
+     * @return null on success, or the message describing the failure
+     */
+    private String process(File inputFile, File outputFile) {
+        PixelOperation operation = options.getOperation();
+        boolean binaryOutput = options.isBinaryOutput();
+        ImageStatistics.Collector collector = options.isHistogram() ? new ImageStatistics.Collector() : null;
+
+        if ((options.isMapped() || options.isStreaming())
+            && (PxbFormat.isPxbName(inputFile.getName()) || PxbFormat.isPxbName(outputFile.getName()))) {
+            return "PXB files need whole images in memory";
+        }
+        if (options.isMapped() || options.isStreaming()) {
+            PixelOperation measured = operation != null && collector != null
+                                      ? OperationChain.of(operation, collector) : operation;
+            ConversionStats.Timer timer = stats.start(ConversionStats.Stage.PIPELINE);
+            String error = options.isMapped() ? processMapped(inputFile, outputFile, measured)
+                                              : processStreaming(inputFile, outputFile, measured, collector);
+            timer.stop(inputFile.length() + outputFile.length(), 0);
+            if (error == null) {
+                stats.recordConversion(inputFile.length(), outputFile.length(), 0);
+                imageStatistics = collector == null ? null : collector.getStatistics();
+            }
+            return error;
+        }
+
+        // A P6 preview is read straight from the file, before the full image is parsed
+        int previewStep = options.getPreviewStep();
+        boolean previewWritten = false;
+        if (previewStep > 0) {
+            try {
+                previewWritten = writePreview(Preview.read(inputFile.toPath(), previewStep), outputFile);
+            } catch (IOException e) {
+                // Sample the preview from the parsed image instead
+            }
+        }
+
+        PixelBuffer pixels;
+        ConversionStats.Timer timer = stats.start(ConversionStats.Stage.READ);
+        try {
+            pixels = ParallelPpmDecoder.read(inputFile.toPath(), executor);
+        } catch (IOException e) {
+            pixels = null;
+        }
+        if (pixels == null) {
+            // No preview is left behind for a conversion that failed
+            if (previewWritten) {
+                deletePreview(outputFile);
+            }
+            return "Invalid input file";
+        }
+        long pixelCount = (long) pixels.getWidth() * pixels.getHeight();
+        timer.stop(inputFile.length(), pixelCount);
+        if (previewStep > 0 && !previewWritten) {
+            previewWritten = writePreview(Preview.sample(pixels, previewStep), outputFile);
+        }
+
+        timer = stats.start(ConversionStats.Stage.PROCESS);
+        pixels = pipeline.apply(pixels, executor, collector);
+        timer.stop(0, pixelCount);
+
+        timer = stats.start(ConversionStats.Stage.WRITE);
+        try {
+            if (PxbFormat.isPxbName(outputFile.getName())) {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                    PxbFormat.write(out, pixels, executor);
+                }
+            } else {
+                ParallelPpmEncoder.write(outputFile.toPath(), pixels, binaryOutput, executor);
+            }
+        } catch (IOException e) {
+            if (previewWritten) {
+                deletePreview(outputFile);
+            }
+            return "Cannot create output file";
+        }
+        timer.stop(outputFile.length(), pixelCount);
+        stats.recordConversion(inputFile.length(), outputFile.length(), pixelCount);
+        imageStatistics = collector == null ? null : collector.getStatistics();
+        return null;
+    }
+
+    /**
+     * Applies the operations to a preview and writes it next to the output.
+     * Resizes are scaled down by the preview step, so the preview keeps its
+     * lower resolution.
+     *
+     * @param preview sampled image, or null if none could be read
+     * @param outputFile full-resolution output file
+     * @return true if the preview was written
+     */
+    private boolean writePreview(PixelBuffer preview, File outputFile) {
+        if (preview == null) return false;
+        preview = options.getPipeline().forPreview(options.getPreviewStep()).apply(preview, RowExecutor.SERIAL);
+        try (OutputStream out = new FileOutputStream(Preview.fileFor(outputFile))) {
+            ImageEditor.writePPM(out, preview, options.isBinaryOutput());
+            return true;
+        } catch (IOException e) {
+            // The preview is a convenience; the full conversion goes on
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the preview of an output file whose conversion failed.
+     *
+     * @param outputFile full-resolution output file
+     */
+    private static void deletePreview(File outputFile) {
+        try {
+            Files.deleteIfExists(Preview.fileFor(outputFile).toPath());
+        } catch (IOException e) {
+            // Nothing more can be done about a stale preview
+        }
+    }
+
+    /**
+     * Converts a P6 file through memory mappings.
+     *
+     * @param inputFile PPM file to read
+     * @param outputFile PPM file to write, possibly the input file
+     * @param operation operation to apply
+     * @return null on success, or the message describing the failure
+     */
+    private String processMapped(File inputFile, File outputFile, PixelOperation operation) {
+        try {
+            boolean inPlace = outputFile.exists()
+                              && Files.isSameFile(inputFile.toPath(), outputFile.toPath());
+            boolean valid = inPlace
+                            ? MappedImageEditor.transformInPlace(inputFile.toPath(), operation)
+                            : MappedImageEditor.transform(inputFile.toPath(), outputFile.toPath(), operation);
+            return valid ? null : "Invalid input file";
+        } catch (IOException e) {
+            return "Cannot create output file";
+        }
+    }
+
+    /**
+     * Converts a file a band of rows at a time.
+     *
+     * @param inputFile PPM file to read
+     * @param outputFile PPM file to write
+     * @param operation per-pixel operation to apply, or null if the
+     *                  pipeline starts with a box resize
+     * @param collector collector given the resized image, or null
+     * @return null on success, or the message describing the failure
+     */
+    private String processStreaming(File inputFile, File outputFile, PixelOperation operation,
+                                    ImageStatistics.Collector collector) {
+        try {
+            if (outputFile.exists() && Files.isSameFile(inputFile.toPath(), outputFile.toPath())) {
+                return "Cannot stream a file onto itself";
+            }
+        } catch (IOException e) {
+            return "Unable to access input file: " + inputFile;
+        }
+        if (operation == null) {
+            return processResizedStreaming(inputFile, outputFile, collector);
+        }
+        // Rows are written as they are read, so they go to a partial file
+        // that only replaces the output once the whole input has parsed
+        File partFile = new File(outputFile.getAbsoluteFile().getParentFile(),
+                                 outputFile.getName() + ".part");
+        try {
+            try (InputStream in = new FileInputStream(inputFile);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(partFile))) {
+                if (!StreamingImageEditor.process(in, out, operation, options.isBinaryOutput(),
+                                                  StreamingImageEditor.DEFAULT_BAND_ROWS)) {
+                    return "Invalid input file";
+                }
+            }
+            Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        } catch (IOException e) {
+            return "Cannot create output file";
+        } finally {
+            partFile.delete();
+        }
+    }
+
+    /**
+     * Converts a file whose operations start with a box resize, shrinking
+     * the image while it is parsed.
+     *
+     * @param inputFile PPM file to read
+     * @param outputFile PPM file to write
+     * @param collector collector given the resized image, or null
+     * @return null on success, or the message describing the failure
+     */
+    private String processResizedStreaming(File inputFile, File outputFile, ImageStatistics.Collector collector) {
+        PixelBuffer pixels;
+        try (InputStream in = new FileInputStream(inputFile)) {
+            pixels = options.getPipeline().readResized(in, executor);
+            if (pixels == null) {
+                return "Invalid input file";
+            }
+        } catch (IOException e) {
+            return "Invalid input file";
+        }
+        if (collector != null) {
+            executor.execute(pixels, collector);
+        }
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            ImageEditor.writePPM(out, pixels, options.isBinaryOutput());
+        } catch (IOException e) {
+            return "Cannot create output file";
+        }
+        return null;
+    }
+}
@@ -1,49 +1,88 @@
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.InputMismatchException;
 import java.util.Scanner;
 
 /**
  * The ImageEditor class provides methods to read, process, and write PPM images.
  * Supported operations include invert colors, high contrast, and grayscale.
+ * Images may be read and written as ASCII (P3) or binary (P6) PPM files.
  * This class is used as a command-line utility to apply these operations.
  * 
- * Usage: java ImageEditor {-I|-H|-G} infile outfile
+ * Usage: java ImageEditor [options] {-I|-H|-G|...}... infile outfile
  * 
  * @author Moksh Thakore
  */
 public class ImageEditor {
 
     /**
-     * Main method to process a PPM file based on a specified operation.
-     * Usage: java -cp bin ImageEditor {-I|-H|-G} infile outfile
+     * Main method to process PPM files based on a chain of operations.
+     * Usage: java -cp bin ImageEditor [--format=P3|P6] [--threads=N]
+     *            [--parallel-threshold=PIXELS] [--mmap|--stream|--tile-cache=MB]
+     *            [--cache|--cache-dir=DIR] [--cache-size=MB] [--overwrite=ask|yes|no]
+     *            [--stats] [--histogram] [--preview=N|--batch [--jobs=N]]
+     *            {-I|-H|-H=otsu|-G|-G=MODEL|-autocontrast|-brightness=N|-gamma=G|-threshold=T
+     *             |-posterize=L|-blur=R|-sharpen|-sobel|-resize=WxH[:nearest|bilinear|box]}...
+     *            infile outfile
+     *    or: java -cp bin ImageEditor --histogram [--threads=N] [--stats] infile
+     *    or: java -cp bin ImageEditor --server=PORT [--format=P3|P6] [--threads=N]
+     *            [--parallel-threshold=PIXELS] [--jobs=N] [--max-pixels=N]
      *
-     * @param args command-line arguments: operation flag, input file, output file
+     * The operation flags are applied in the order given and the output is
+     * written as P3 unless --format=P6 is given; either file may be a .pxb
+     * container instead. --mmap and --stream convert without holding the
+     * whole image, --batch converts a directory or glob into a directory and
+     * exits with status 1 if any file failed, and --server keeps the editor
+     * resident behind a loopback HTTP port. EditorOptions says which options
+     * combine, and each feature is described by its own class.
+     *
+     * @param args command-line arguments: options, operation flags, input file, output file
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java -cp bin ImageEditor {-I|-H|-G} infile outfile");
+        EditorOptions options;
+        try {
+            options = EditorOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
             return;
         }
 
-        String flag = args[0];
-        String inputFileName = args[1];
-        String outputFileName = args[2];
+        if (options.isBatch()) {
+            // A batch usually runs unattended, so failures show in the exit status
+            if (BatchProcessor.run(options, System.out) > 0) {
+                System.exit(1);
+            }
+            return;
+        }
 
-        // Check if the flag is valid
-        if (!flag.equals("-I") && !flag.equals("-H") && !flag.equals("-G")) {
-            System.out.println("Usage: java -cp bin ImageEditor {-I|-H|-G} infile outfile");
+        if (options.isServer()) {
+            try {
+                ImageServer server = new ImageServer(options.getServerPort(), options);
+                server.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                System.out.println("Listening on http://localhost:" + server.getPort() + "/");
+            } catch (IOException e) {
+                System.out.println("Unable to listen on port " + options.getServerPort() + ": "
+                                   + e.getMessage());
+            }
             return;
         }
 
+        String inputFileName = options.getInput();
+        String outputFileName = options.getOutput();
+
         // Validate file extensions
-        if (!inputFileName.endsWith(".ppm")) {
+        if (!inputFileName.endsWith(".ppm") && !PxbFormat.isPxbName(inputFileName)) {
             System.out.println("Invalid input file extension");
             return;
         }
 
-        if (!outputFileName.endsWith(".ppm")) {
+        if (outputFileName != null && !outputFileName.endsWith(".ppm") && !PxbFormat.isPxbName(outputFileName)) {
             System.out.println("Invalid output file extension");
             return;
         }
@@ -55,54 +94,50 @@ public class ImageEditor {
             return;
         }
 
+        if (options.isHistogramOnly()) {
+            ImageConverter converter = new ImageConverter(options);
+            String error = converter.analyse(inputFile);
+            if (error != null) {
+                System.out.println(error);
+            } else {
+                System.out.println(converter.getImageStatistics());
+                System.out.println(converter.getImageStatistics().histogramTable());
+            }
+            if (options.isStats()) {
+                System.out.println(converter.getStats());
+            }
+            return;
+        }
+
         // Confirm overwriting if output file exists
         File outputFile = new File(outputFileName);
         if (outputFile.exists()) {
-            System.out.print(outputFileName + " exists - OK to overwrite(y,n)?: ");
-            Scanner sc = new Scanner(System.in);
-            String response = sc.nextLine();
-            if (!response.toLowerCase().startsWith("y")) {
-                sc.close();
+            if (options.getOverwrite() == EditorOptions.Overwrite.NEVER) {
+                System.out.println(outputFileName + " exists - not overwritten");
                 return;
             }
-            sc.close();
-        }
-
-        int[][] pixels;
-        try (Scanner in = new Scanner(inputFile)) {
-            pixels = getPixelValues(in);
-            if (pixels == null) {
-                System.out.println("Invalid input file");
-                return;
+            if (options.getOverwrite() == EditorOptions.Overwrite.ASK) {
+                System.out.print(outputFileName + " exists - OK to overwrite(y,n)?: ");
+                Scanner sc = new Scanner(System.in);
+                String response = sc.nextLine();
+                if (!response.toLowerCase().startsWith("y")) {
+                    sc.close();
+                    return;
+                }
+                sc.close();
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Invalid input file");
-            return;
         }
 
-        try {
-            switch (flag) {
-                case "-I":
-                    invert(pixels);
-                    break;
-                case "-H":
-                    highContrast(pixels);
-                    break;
-                case "-G":
-                    greyScale(pixels);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unknown flag: " + flag);
-            }
-        } catch (IllegalArgumentException e) {
-            System.out.println(e.getMessage());
-            return;
+        ImageConverter converter = new ImageConverter(options);
+        String error = converter.convert(inputFile, outputFile);
+        if (error != null) {
+            System.out.println(error);
         }
-
-        try (PrintWriter out = new PrintWriter(outputFile)) {
-            outputPPM(out, pixels);
-        } catch (FileNotFoundException e) {
-            System.out.println("Cannot create output file");
+        if (error == null && options.isHistogram()) {
+            System.out.println(converter.getImageStatistics());
+        }
+        if (options.isStats()) {
+            System.out.println(converter.getStats());
         }
     }
 
@@ -151,6 +186,116 @@ public class ImageEditor {
         }
     }
 
+    /**
+     * Reads and validates a PPM file from a byte stream, returning a 2D array
+     * of pixel RGB values. Both ASCII (P3) and binary (P6) files are accepted,
+     * as are compressed PXB files.
+     * The same rules as getPixelValues apply, comments starting with '#' are
+     * skipped, and a binary raster is read a whole row at a time.
+     *
+     * @param in InputStream for the input PPM file
+     * @return 2D array of RGB pixel values, or null if the file is invalid
+     * @throws IOException if the stream cannot be read
+     */
+    public static int[][] readPixelValues(InputStream in) throws IOException {
+        PixelBuffer image = readPixelBuffer(in);
+        return image == null ? null : image.toArray();
+    }
+
+    /**
+     * Reads and validates a PPM file from a byte stream into a packed
+     * PixelBuffer. Both ASCII (P3) and binary (P6) files are accepted, with
+     * the same validation rules as readPixelValues.
+     *
+     * @param in InputStream for the input PPM file
+     * @return packed image, or null if the file is invalid
+     * @throws IOException if the stream cannot be read
+     */
+    public static PixelBuffer readPixelBuffer(InputStream in) throws IOException {
+        return readPixelBuffer(in, null);
+    }
+
+    /**
+     * Reads and validates a PPM file from a byte stream into a PixelBuffer
+     * taken from a pool. If the file is invalid the buffer is returned to the
+     * pool; otherwise the caller should release it when done. A PXB file is
+     * recognized by its magic bytes and read into a new buffer.
+     *
+     * @param in InputStream for the input PPM file
+     * @param pool pool supplying the buffer, or null to allocate a new one
+     * @return packed image, or null if the file is invalid
+     * @throws IOException if the stream cannot be read
+     */
+    public static PixelBuffer readPixelBuffer(InputStream in, PixelBufferPool pool) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("Null file");
+        }
+
+        PushbackInputStream source = new PushbackInputStream(in, PxbFormat.MAGIC.length);
+        if (PxbFormat.startsWithMagic(source)) {
+            return PxbFormat.read(source, RowExecutor.SERIAL);
+        }
+
+        PpmTokenizer tokens = new PpmTokenizer(source);
+        PpmHeader header = PpmHeader.read(tokens);
+        if (header == null || header.getSampleCount() > Integer.MAX_VALUE - 8) return null;
+
+        PixelBuffer image = pool == null ? new PixelBuffer(header.getWidth(), header.getHeight())
+                                         : pool.acquire(header.getWidth(), header.getHeight());
+        if (readRows(tokens, header, image, header.getHeight())) {
+            return image;
+        }
+        if (pool != null) {
+            pool.release(image);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the samples of consecutive rows of a PPM file into the first rows
+     * of an image of the same width.
+     *
+     * @param tokens tokenizer positioned at the first sample of the rows
+     * @param header header of the file
+     * @param image image whose rows from 0 to count - 1 are filled
+     * @param count number of rows to read
+     * @return true if all samples were read and valid, false otherwise
+     * @throws IOException if the stream cannot be read
+     */
+    static boolean readRows(PpmTokenizer tokens, PpmHeader header, PixelBuffer image, int count)
+            throws IOException {
+        byte[] data = image.getData();
+        int rowLength = image.getRowLength();
+        if (header.isBinary()) {
+            for (int i = 0; i < count; i++) {
+                if (!tokens.readFully(data, image.rowOffset(i), rowLength)) return false;
+            }
+            return true;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int offset = image.rowOffset(i);
+            for (int j = 0; j < rowLength; j++) {
+                int value = tokens.nextInt();
+                if (value < 0 || value > 255) return false;
+                data[offset + j] = (byte) value;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps each RGB value in the pixel array through a point operation.
+     *
+     * @param pixels 2D array of RGB pixel values
+     * @param operation point operation to apply
+     */
+    public static void apply(int[][] pixels, PointOperation operation) {
+        validatePixelArray(pixels);
+        if (operation == null) throw new IllegalArgumentException("Null operation");
+        operation.apply(pixels);
+    }
+
     /**
      * Inverts each RGB value in the pixel array.
      *
@@ -165,6 +310,28 @@ public class ImageEditor {
         }
     }
 
+    /**
+     * Inverts each RGB value in the packed image.
+     *
+     * @param image packed RGB image
+     */
+    public static void invertImage(PixelBuffer image) {
+        invertImage(image, RowExecutor.SERIAL);
+    }
+
+    /**
+     * Inverts each RGB value in the packed image, splitting the rows
+     * between threads as configured by the executor.
+     *
+     * @param image packed RGB image
+     * @param executor executor that decides how rows are split between threads
+     */
+    public static void invertImage(PixelBuffer image, RowExecutor executor) {
+        validatePixelBuffer(image);
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+        executor.execute(image, PixelOperation.INVERT);
+    }
+
     /**
      * Converts each RGB value in the pixel array to high contrast.
      *
@@ -179,6 +346,28 @@ public class ImageEditor {
         }
     }
 
+    /**
+     * Converts each RGB value in the packed image to high contrast.
+     *
+     * @param image packed RGB image
+     */
+    public static void highContrastImage(PixelBuffer image) {
+        highContrastImage(image, RowExecutor.SERIAL);
+    }
+
+    /**
+     * Converts each RGB value in the packed image to high contrast, splitting the rows
+     * between threads as configured by the executor.
+     *
+     * @param image packed RGB image
+     * @param executor executor that decides how rows are split between threads
+     */
+    public static void highContrastImage(PixelBuffer image, RowExecutor executor) {
+        validatePixelBuffer(image);
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+        executor.execute(image, PixelOperation.HIGH_CONTRAST);
+    }
+
     /**
      * Converts each RGB value in the pixel array to grayscale.
      *
@@ -194,15 +383,37 @@ public class ImageEditor {
         }
     }
 
+    /**
+     * Converts each RGB value in the packed image to grayscale.
+     *
+     * @param image packed RGB image
+     */
+    public static void greyScaleImage(PixelBuffer image) {
+        greyScaleImage(image, RowExecutor.SERIAL);
+    }
+
+    /**
+     * Converts each RGB value in the packed image to grayscale, splitting the rows
+     * between threads as configured by the executor.
+     *
+     * @param image packed RGB image
+     * @param executor executor that decides how rows are split between threads
+     */
+    public static void greyScaleImage(PixelBuffer image, RowExecutor executor) {
+        validatePixelBuffer(image);
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+        executor.execute(image, PixelOperation.GREY_SCALE);
+    }
+
     /**
      * Writes the pixel data to an output file in PPM format.
      *
      * @param out PrintWriter object for the output PPM file
-     * @param pixels 2D array of RGB pixel values
+     * @param pixels 2D array of RGB pixel values from 0 to 255
      */
     public static void outputPPM(PrintWriter out, int[][] pixels) {
         if (out == null) throw new IllegalArgumentException("Null file");
-        validatePixelArray(pixels);
+        validatePixelValues(pixels);
 
         int rows = pixels.length;
         int cols = pixels[0].length / 3;
@@ -219,12 +430,102 @@ public class ImageEditor {
         }
     }
 
+    /**
+     * Writes the packed image to an output file in PPM format.
+     *
+     * @param out PrintWriter object for the output PPM file
+     * @param image packed RGB image
+     */
+    public static void outputImagePPM(PrintWriter out, PixelBuffer image) {
+        if (out == null) throw new IllegalArgumentException("Null file");
+        validatePixelBuffer(image);
+
+        out.println("P3");
+        out.println(image.getWidth() + " " + image.getHeight());
+        out.println("255");
+
+        byte[] data = image.getData();
+        int rowLength = image.getRowLength();
+        for (int row = 0; row < image.getHeight(); row++) {
+            int offset = image.rowOffset(row);
+            for (int j = 0; j < rowLength; j++) {
+                out.print(data[offset + j] & 0xFF);
+                if (j < rowLength - 1) out.print(" ");
+            }
+            out.println();
+        }
+    }
+
+    /**
+     * Writes the packed image to an output stream in P3 or P6 format. P3
+     * output is identical to outputImagePPM, but the digits are encoded from a
+     * lookup table into a byte buffer that is written a chunk at a time.
+     *
+     * @param out OutputStream for the output PPM file
+     * @param image packed RGB image
+     * @param binary true to write P6, false to write P3
+     * @throws IOException if the stream cannot be written
+     */
+    public static void writePPM(OutputStream out, PixelBuffer image, boolean binary) throws IOException {
+        if (out == null) throw new IllegalArgumentException("Null file");
+        validatePixelBuffer(image);
+        PpmWriter.write(out, image, binary);
+    }
+
+    /**
+     * Writes the pixel data to an output stream in binary (P6) PPM format.
+     *
+     * @param out OutputStream for the output PPM file
+     * @param pixels 2D array of RGB pixel values from 0 to 255
+     * @throws IOException if the stream cannot be written
+     */
+    public static void outputBinaryPPM(OutputStream out, int[][] pixels) throws IOException {
+        if (out == null) throw new IllegalArgumentException("Null file");
+        validatePixelValues(pixels);
+
+        int rows = pixels.length;
+        int cols = pixels[0].length / 3;
+        out.write(("P6\n" + cols + " " + rows + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+
+        byte[] samples = new byte[cols * 3];
+        for (int[] row : pixels) {
+            for (int j = 0; j < row.length; j++) {
+                samples[j] = (byte) row[j];
+            }
+            out.write(samples);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the packed image to an output stream in binary (P6) PPM format.
+     *
+     * @param out OutputStream for the output PPM file
+     * @param image packed RGB image
+     * @throws IOException if the stream cannot be written
+     */
+    public static void outputBinaryImagePPM(OutputStream out, PixelBuffer image) throws IOException {
+        if (out == null) throw new IllegalArgumentException("Null file");
+        validatePixelBuffer(image);
+
+        out.write(("P6\n" + image.getWidth() + " " + image.getHeight() + "\n255\n")
+                  .getBytes(StandardCharsets.US_ASCII));
+        if (image.getStride() == image.getRowLength()) {
+            out.write(image.getData(), 0, image.getRowLength() * image.getHeight());
+        } else {
+            for (int row = 0; row < image.getHeight(); row++) {
+                out.write(image.getData(), image.rowOffset(row), image.getRowLength());
+            }
+        }
+        out.flush();
+    }
+
     /**
      * Validates that the pixel array is not null, rectangular, and has values in multiples of 3.
      *
      * @param pixels 2D array of RGB pixel values
      */
-    private static void validatePixelArray(int[][] pixels) {
+    static void validatePixelArray(int[][] pixels) {
         if (pixels == null) throw new IllegalArgumentException("Null array");
         int length = pixels[0].length;
         if (length % 3 != 0) throw new IllegalArgumentException("Invalid array");
@@ -232,4 +533,28 @@ public class ImageEditor {
             if (row.length != length) throw new IllegalArgumentException("Jagged array");
         }
     }
+
+    /**
+     * Validates the pixel array as validatePixelArray does, and that every
+     * value is from 0 to 255, before anything is written from it.
+     *
+     * @param pixels 2D array of RGB pixel values
+     */
+    private static void validatePixelValues(int[][] pixels) {
+        validatePixelArray(pixels);
+        for (int[] row : pixels) {
+            for (int value : row) {
+                if (value < 0 || value > 255) throw new IllegalArgumentException("Invalid value");
+            }
+        }
+    }
+
+    /**
+     * Validates that the packed image is not null.
+     *
+     * @param image packed RGB image
+     */
+    private static void validatePixelBuffer(PixelBuffer image) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+    }
 }
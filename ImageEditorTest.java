@@ -1,8 +1,14 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 import java.nio.file.*;
 
@@ -299,6 +305,1201 @@ public class ImageEditorTest {
         
     }
 
+    /**
+     * Tests readPixelValues
+     */
+    @Test
+    public void testReadPixelValues() throws IOException {
+        int[][] validPixels = {{1,2,3}, {4,5,6}};
+        assertArrayEquals(validPixels,
+                          ImageEditor.readPixelValues(stream("P3 1 2 255 1 2 3 4 5 6")),
+                          "Tests correct PPM stream");
+
+        assertArrayEquals(validPixels,
+                          ImageEditor.readPixelValues(stream("P3\n# comment\n1 2 # size\n255\n"
+                                                            + "1 2 3\n#\n4 5 6\n")),
+                          "Tests PPM stream with comments");
+
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> ImageEditor.readPixelValues(null), "ImageEditor.readPixelValues(null)");
+        assertEquals("Null file", exception.getMessage(),
+                     "Testing ImageEditor.readPixelValues(null) " +
+                     "- exception message");
+
+        assertNull(ImageEditor.readPixelValues(stream("P2 1 2 255 1 2 3 4 5 6")),
+                   "Tests ppm stream with invalid type");
+        assertNull(ImageEditor.readPixelValues(stream("P3 abc 2 255 1 2 3 4 5 6")),
+                   "Tests ppm stream with non-integer cols");
+        assertNull(ImageEditor.readPixelValues(stream("P3 -5 2 255 1 2 3 4 5 6")),
+                   "Tests ppm stream with non-positive cols");
+        assertNull(ImageEditor.readPixelValues(stream("P3 1 abc 255 1 2 3 4 5 6")),
+                   "Tests ppm stream with non-integer rows");
+        assertNull(ImageEditor.readPixelValues(stream("P3 1 2 180 1 2 3 4 5 6")),
+                   "Tests ppm stream with invalid max value");
+        assertNull(ImageEditor.readPixelValues(stream("P3 1 2 255 1 2 3 4")),
+                   "Tests ppm stream with too few values");
+        assertNull(ImageEditor.readPixelValues(stream("P3 1 2 255 1 2 3 x 5 6")),
+                   "Tests ppm stream with invalid RGB noninteger value");
+        assertNull(ImageEditor.readPixelValues(stream("P3 1 2 255 1 2 3 4y 5 6")),
+                   "Tests ppm stream with trailing garbage in a value");
+        assertNull(ImageEditor.readPixelValues(stream("P3 1 2 255 1 2 3 256 5 6")),
+                   "Tests ppm stream with out of range RGB value");
+    }
+
+    /**
+     * Tests reading and writing binary P6 files
+     */
+    @Test
+    public void testBinaryPPM() throws IOException {
+        int[][] validPixels = {{1, 2, 3, 250, 251, 252}, {4, 5, 6, 128, 0, 255}};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageEditor.outputBinaryPPM(bytes, validPixels);
+        byte[] encoded = bytes.toByteArray();
+        byte[] header = "P6\n2 2\n255\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(header.length + 12, encoded.length, "Tests P6 file length");
+
+        assertArrayEquals(validPixels,
+                          ImageEditor.readPixelValues(new ByteArrayInputStream(encoded)),
+                          "Tests P6 round trip");
+
+        byte[] truncated = java.util.Arrays.copyOf(encoded, encoded.length - 1);
+        assertNull(ImageEditor.readPixelValues(new ByteArrayInputStream(truncated)),
+                   "Tests truncated P6 file");
+
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> ImageEditor.outputBinaryPPM(null, validPixels),
+            "ImageEditor.outputBinaryPPM(null, validPixels)");
+        assertEquals("Null file", exception.getMessage(),
+                     "Testing ImageEditor.outputBinaryPPM(null, validPixels) - exception message");
+    }
+
+    /**
+     * Tests the packed PixelBuffer overloads against the int[][] methods
+     */
+    @Test
+    public void testPixelBuffer() throws IOException {
+        int[][] mixedColors = {
+            {255, 0, 0, 0, 255, 0, 100, 150, 200},
+            {0, 0, 255, 255, 255, 255, 127, 128, 129}
+        };
+        PixelBuffer image = PixelBuffer.fromArray(mixedColors);
+        assertEquals(3, image.getWidth(), "PixelBuffer width");
+        assertEquals(2, image.getHeight(), "PixelBuffer height");
+        assertArrayEquals(mixedColors, image.toArray(), "PixelBuffer round trip");
+
+        int[][] expected = copy(mixedColors);
+        ImageEditor.invert(expected);
+        ImageEditor.invertImage(image);
+        assertArrayEquals(expected, image.toArray(), "PixelBuffer invert");
+
+        ImageEditor.highContrast(expected);
+        ImageEditor.highContrastImage(image);
+        assertArrayEquals(expected, image.toArray(), "PixelBuffer high contrast");
+
+        expected = copy(mixedColors);
+        image = PixelBuffer.fromArray(mixedColors);
+        ImageEditor.greyScale(expected);
+        ImageEditor.greyScaleImage(image);
+        assertArrayEquals(expected, image.toArray(), "PixelBuffer grey scale");
+
+        PixelBuffer padded = new PixelBuffer(1, 2, 8);
+        padded.setSample(1, 2, 200);
+        assertEquals(200, padded.getData()[10] & 0xFF, "PixelBuffer stride");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageEditor.outputBinaryImagePPM(bytes, padded);
+        assertArrayEquals(new int[][] {{0, 0, 0}, {0, 0, 200}},
+                          ImageEditor.readPixelValues(new ByteArrayInputStream(bytes.toByteArray())),
+                          "PixelBuffer padded P6 output");
+
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> ImageEditor.invertImage(null), "ImageEditor.invertImage(null)");
+        assertEquals("Null image", exception.getMessage(),
+                     "Testing ImageEditor.invertImage(null) - exception message");
+
+        int[][] outOfRange = {{1, 2, 300}};
+        ByteArrayOutputStream rejected = new ByteArrayOutputStream();
+        exception = assertThrows(IllegalArgumentException.class,
+            () -> ImageEditor.outputBinaryPPM(rejected, outOfRange), "ImageEditor.outputBinaryPPM(outOfRange)");
+        assertEquals("Invalid value", exception.getMessage(),
+                     "Testing ImageEditor.outputBinaryPPM(outOfRange) - exception message");
+        assertEquals(0, rejected.size(), "Nothing written for an invalid array");
+        exception = assertThrows(IllegalArgumentException.class,
+            () -> ImageEditor.outputPPM(new java.io.PrintWriter(rejected), outOfRange),
+            "ImageEditor.outputPPM(outOfRange)");
+        assertEquals("Invalid value", exception.getMessage(),
+                     "Testing ImageEditor.outputPPM(outOfRange) - exception message");
+
+        exception = assertThrows(IllegalArgumentException.class,
+            () -> PixelBuffer.fromArray(outOfRange), "PixelBuffer.fromArray(outOfRange)");
+        assertEquals("Invalid value", exception.getMessage(),
+                     "Testing PixelBuffer.fromArray(outOfRange) - exception message");
+    }
+
+    /**
+     * Tests that the row-parallel executor gives the same result as the serial path
+     */
+    @Test
+    public void testParallelExecutor() {
+        PixelBuffer source = new PixelBuffer(37, 301);
+        byte[] data = source.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + i / 7);
+        }
+        RowExecutor parallel = new RowExecutor(4, 0);
+        PixelOperation[] operations = {PixelOperation.INVERT, PixelOperation.HIGH_CONTRAST,
+                                       PixelOperation.GREY_SCALE};
+        for (PixelOperation operation : operations) {
+            PixelBuffer serialImage = PixelBuffer.fromArray(source.toArray());
+            PixelBuffer parallelImage = PixelBuffer.fromArray(source.toArray());
+            RowExecutor.SERIAL.execute(serialImage, operation);
+            parallel.execute(parallelImage, operation);
+            assertArrayEquals(serialImage.getData(), parallelImage.getData(),
+                              "Parallel result matches serial result");
+        }
+
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> new RowExecutor(0, 0), "new RowExecutor(0, 0)");
+        assertEquals("Invalid parallelism", exception.getMessage(),
+                     "Testing new RowExecutor(0, 0) - exception message");
+    }
+
+    /**
+     * Tests processing P6 files through memory mappings
+     */
+    @Test
+    public void testMappedImageEditor() throws IOException {
+        int[][] validPixels = {{1, 2, 3, 250, 251, 252}, {4, 5, 6, 128, 0, 255}};
+        int[][] expected = copy(validPixels);
+        ImageEditor.invert(expected);
+
+        Path input = Files.createTempFile("mapped", ".ppm");
+        Path output = Files.createTempFile("mapped-out", ".ppm");
+        try {
+            try (FileOutputStream out = new FileOutputStream(input.toFile())) {
+                ImageEditor.outputBinaryPPM(out, validPixels);
+            }
+            assertTrue(MappedImageEditor.transform(input, output, PixelOperation.INVERT),
+                       "Tests mapped transform of a P6 file");
+            try (InputStream in = Files.newInputStream(output)) {
+                assertArrayEquals(expected, ImageEditor.readPixelValues(in), "Tests mapped transform");
+            }
+
+            assertTrue(MappedImageEditor.transformInPlace(input, PixelOperation.INVERT),
+                       "Tests mapped in-place transform of a P6 file");
+            try (InputStream in = Files.newInputStream(input)) {
+                assertArrayEquals(expected, ImageEditor.readPixelValues(in),
+                                  "Tests mapped in-place transform");
+            }
+
+            Files.write(input, "P3 1 1 255 1 2 3".getBytes(StandardCharsets.US_ASCII));
+            assertFalse(MappedImageEditor.transformInPlace(input, PixelOperation.INVERT),
+                        "Tests mapped transform of a P3 file");
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Tests the band-at-a-time streaming pipeline against the whole-image path
+     */
+    @Test
+    public void testStreamingImageEditor() throws IOException {
+        PixelBuffer source = new PixelBuffer(5, 23);
+        byte[] data = source.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        ImageEditor.outputBinaryImagePPM(input, source);
+
+        PixelBuffer expected = PixelBuffer.fromArray(source.toArray());
+        ImageEditor.greyScaleImage(expected);
+        ByteArrayOutputStream expectedText = new ByteArrayOutputStream();
+        PrintWriter text = new PrintWriter(expectedText);
+        ImageEditor.outputImagePPM(text, expected);
+        text.flush();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertTrue(StreamingImageEditor.process(new ByteArrayInputStream(input.toByteArray()), output,
+                                                PixelOperation.GREY_SCALE, false, 4),
+                   "Tests streaming P6 to P3");
+        assertArrayEquals(expectedText.toByteArray(), output.toByteArray(), "Tests streamed P3 output");
+
+        output = new ByteArrayOutputStream();
+        assertTrue(StreamingImageEditor.process(new ByteArrayInputStream(expectedText.toByteArray()),
+                                                output, PixelOperation.INVERT, true, 3),
+                   "Tests streaming P3 to P6");
+        ImageEditor.invertImage(expected);
+        assertArrayEquals(expected.toArray(),
+                          ImageEditor.readPixelValues(new ByteArrayInputStream(output.toByteArray())),
+                          "Tests streamed P6 output");
+
+        assertFalse(StreamingImageEditor.process(stream("P3 1 2 255 1 2 3 4"), new ByteArrayOutputStream(),
+                                                 PixelOperation.INVERT, false, 1),
+                    "Tests streaming a truncated file");
+
+        Path in = Files.createTempFile("stream", ".ppm");
+        Path out = Files.createTempFile("stream-out", ".ppm");
+        try {
+            Files.write(out, "existing".getBytes(StandardCharsets.US_ASCII));
+            ImageConverter converter = new ImageConverter(EditorOptions.parse(new String[] {
+                "--stream", "-I", in.toString(), out.toString()}));
+            for (String bad : new String[] {"P3 1 x", "P3 1 2 255 1 2 3 4"}) {
+                Files.write(in, bad.getBytes(StandardCharsets.US_ASCII));
+                assertEquals("Invalid input file", converter.convert(in.toFile(), out.toFile()),
+                             "Tests streaming invalid input to a file");
+                assertEquals("existing", new String(Files.readAllBytes(out), StandardCharsets.US_ASCII),
+                             "Tests invalid input leaves the output alone");
+            }
+            Files.write(in, "P3 1 1 255 255 0 0".getBytes(StandardCharsets.US_ASCII));
+            assertNull(converter.convert(in.toFile(), out.toFile()), "Tests streaming a file");
+            try (InputStream result = Files.newInputStream(out)) {
+                assertArrayEquals(ONE_RED_PIXEL_INVERTED, ImageEditor.readPixelValues(result),
+                                  "Tests the streamed file");
+            }
+            assertFalse(Files.exists(Paths.get(out + ".part")), "Tests the partial file is gone");
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+        }
+    }
+
+    /**
+     * Tests that a fused chain of operations matches applying them one at a time
+     */
+    @Test
+    public void testOperationChain() {
+        PixelBuffer source = new PixelBuffer(1500, 3);
+        byte[] data = source.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 13 + i / 5);
+        }
+
+        int[][] expected = source.toArray();
+        ImageEditor.greyScale(expected);
+        ImageEditor.invert(expected);
+        ImageEditor.highContrast(expected);
+        ImageEditor.invert(expected);
+
+        PixelOperation chain = OperationChain.of(PixelOperation.GREY_SCALE, PointOperation.INVERT,
+                                                 PointOperation.HIGH_CONTRAST, PointOperation.INVERT);
+        assertEquals(2, ((OperationChain) chain).getStageCount(),
+                     "Adjacent point operations compose into one stage");
+        RowExecutor.SERIAL.execute(source, chain);
+        assertArrayEquals(expected, source.toArray(), "Chained grey scale, invert, high contrast, invert");
+
+        PixelOperation points = OperationChain.of(PointOperation.INVERT, PointOperation.INVERT);
+        assertTrue(points instanceof PointOperation, "Point operations fuse into one lookup table");
+        assertEquals(200, ((PointOperation) points).applyAsInt(200), "Invert twice is the identity");
+    }
+
+    /**
+     * Tests the parameterised lookup table operations
+     */
+    @Test
+    public void testPointOperations() {
+        PointOperation brighter = PointOperation.brightness(40);
+        assertEquals(40, brighter.applyAsInt(0), "Brightness of 0");
+        assertEquals(255, brighter.applyAsInt(230), "Brightness clamps at 255");
+        assertEquals(0, PointOperation.brightness(-40).applyAsInt(30), "Brightness clamps at 0");
+
+        PointOperation gamma = PointOperation.gamma(2.2);
+        assertEquals(0, gamma.applyAsInt(0), "Gamma of 0");
+        assertEquals(255, gamma.applyAsInt(255), "Gamma of 255");
+        assertEquals(186, gamma.applyAsInt(128), "Gamma 2.2 of 128");
+        assertEquals(128, PointOperation.gamma(1).applyAsInt(128), "Gamma 1 is the identity");
+
+        PointOperation threshold = PointOperation.threshold(200);
+        assertEquals(0, threshold.applyAsInt(199), "Threshold below");
+        assertEquals(255, threshold.applyAsInt(200), "Threshold at");
+
+        PointOperation posterize = PointOperation.posterize(3);
+        assertEquals(0, posterize.applyAsInt(60), "Posterize to 0");
+        assertEquals(128, posterize.applyAsInt(100), "Posterize to the middle level");
+        assertEquals(255, posterize.applyAsInt(200), "Posterize to 255");
+
+        PointOperation composed = PointOperation.INVERT.then(PointOperation.threshold(100));
+        assertEquals(255, composed.applyAsInt(20), "Composed invert then threshold");
+        assertEquals(0, composed.applyAsInt(200), "Composed invert then threshold");
+
+        int[][] pixels = {{10, 100, 250}};
+        ImageEditor.apply(pixels, brighter);
+        assertArrayEquals(new int[][] {{50, 140, 255}}, pixels, "Point operation on a pixel array");
+
+        int[][] invalid = {{10, 20, 30}, {40, 50, 300}};
+        assertThrows(IllegalArgumentException.class, () -> ImageEditor.apply(invalid, brighter),
+                     "Point operation on an out-of-range value");
+        assertArrayEquals(new int[][] {{10, 20, 30}, {40, 50, 300}}, invalid, "Invalid array left unchanged");
+        ImageEditor.invert(invalid);
+        assertArrayEquals(new int[][] {{245, 235, 225}, {215, 205, -45}}, invalid, "Invert keeps its arithmetic");
+        ImageEditor.highContrast(invalid);
+        assertArrayEquals(new int[][] {{255, 255, 255}, {255, 255, 0}}, invalid,
+                          "High contrast keeps its arithmetic");
+
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> PointOperation.posterize(1), "PointOperation.posterize(1)");
+        assertEquals("Invalid levels", exception.getMessage(),
+                     "Testing PointOperation.posterize(1) - exception message");
+        exception = assertThrows(IllegalArgumentException.class,
+            () -> PointOperation.gamma(0), "PointOperation.gamma(0)");
+        assertEquals("Invalid gamma", exception.getMessage(),
+                     "Testing PointOperation.gamma(0) - exception message");
+    }
+
+    /**
+     * Tests that the kernels selected at run time, vectorized or not, match
+     * the scalar arithmetic for every offset and length alignment
+     */
+    @Test
+    public void testSelectedKernels() {
+        java.util.Random random = new java.util.Random(9);
+        for (int length = 0; length <= 300; length += 3) {
+            for (int offset = 0; offset < 4; offset++) {
+                byte[] data = new byte[offset + length + 5];
+                random.nextBytes(data);
+                byte[] expected = data.clone();
+                byte[] actual = data.clone();
+                PixelOperation.greyScale(expected, offset, length);
+                PixelOperation.GREY_SCALE.apply(actual, offset, length);
+                assertArrayEquals(expected, actual, "Grey scale kernel at " + offset + ", " + length);
+
+                expected = data.clone();
+                actual = data.clone();
+                for (int i = offset; i < offset + length; i++) {
+                    expected[i] = (byte) (255 - (expected[i] & 0xFF));
+                }
+                PixelOperation.INVERT.apply(actual, offset, length);
+                assertArrayEquals(expected, actual, "Invert kernel at " + offset + ", " + length);
+
+                expected = data.clone();
+                actual = data.clone();
+                for (int i = offset; i < offset + length; i++) {
+                    expected[i] = (byte) ((expected[i] & 0xFF) < 128 ? 0 : 255);
+                }
+                PixelOperation.HIGH_CONTRAST.apply(actual, offset, length);
+                assertArrayEquals(expected, actual, "High contrast kernel at " + offset + ", " + length);
+            }
+        }
+    }
+
+    /**
+     * Tests that the buffered PpmWriter output is identical to outputPPM
+     */
+    @Test
+    public void testPpmWriter() throws IOException {
+        PixelBuffer image = new PixelBuffer(30000, 3);
+        byte[] data = image.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 17 + i / 256);
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PrintWriter text = new PrintWriter(expected);
+        ImageEditor.outputImagePPM(text, image);
+        text.flush();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        ImageEditor.writePPM(actual, image, false);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray(), "P3 output matches outputPPM");
+
+        expected = new ByteArrayOutputStream();
+        ImageEditor.outputBinaryImagePPM(expected, image);
+        actual = new ByteArrayOutputStream();
+        ImageEditor.writePPM(actual, image, true);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray(), "P6 output matches outputBinaryPPM");
+
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> ImageEditor.writePPM(null, image, false), "ImageEditor.writePPM(null, image, false)");
+        assertEquals("Null file", exception.getMessage(),
+                     "Testing ImageEditor.writePPM(null, image, false) - exception message");
+    }
+
+    /**
+     * Tests converting a directory of files in batch mode
+     */
+    @Test
+    public void testBatchProcessor() throws IOException {
+        Path inputs = Files.createTempDirectory("batch-in");
+        Path outputs = inputs.resolveSibling(inputs.getFileName() + "-out");
+        try {
+            Files.write(inputs.resolve("one.ppm"), "P3 1 1 255 255 0 0".getBytes(StandardCharsets.US_ASCII));
+            Files.write(inputs.resolve("two.ppm"), "P3 1 1 255 0 0 255".getBytes(StandardCharsets.US_ASCII));
+            Files.write(inputs.resolve("bad.ppm"), "P3 1 1 255 0".getBytes(StandardCharsets.US_ASCII));
+            Files.write(inputs.resolve("notes.txt"), "not an image".getBytes(StandardCharsets.US_ASCII));
+
+            assertEquals(3, BatchProcessor.findInputs(inputs.toString()).size(), "Directory lists .ppm files");
+            assertEquals(2, BatchProcessor.findInputs(inputs.resolve("*o*.ppm").toString()).size(),
+                         "Glob lists matching files");
+
+            EditorOptions options = EditorOptions.parse(new String[] {
+                "--batch", "--jobs=2", "-I", inputs.toString(), outputs.toString()});
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            int failures = BatchProcessor.run(options, new java.io.PrintStream(report, true));
+            assertEquals(1, failures, "One invalid file fails");
+            try (InputStream in = Files.newInputStream(outputs.resolve("one.ppm"))) {
+                assertArrayEquals(ONE_RED_PIXEL_INVERTED, ImageEditor.readPixelValues(in),
+                                  "Batch output is inverted");
+            }
+            assertTrue(report.toString().contains("2 converted, 0 skipped, 1 failed"), "Batch summary");
+
+            report.reset();
+            BatchProcessor.run(options, new java.io.PrintStream(report, true));
+            assertTrue(report.toString().contains("0 converted, 2 skipped, 1 failed"),
+                       "Existing outputs are skipped by default");
+
+            Exception exception = assertThrows(IllegalArgumentException.class,
+                () -> EditorOptions.parse(new String[] {"--batch", "--overwrite=ask", "-I", "a", "b"}),
+                "EditorOptions.parse with --batch --overwrite=ask");
+            assertEquals("Batch mode cannot ask before overwriting", exception.getMessage(),
+                         "Testing --batch --overwrite=ask - exception message");
+        } finally {
+            for (Path directory : new Path[] {inputs, outputs}) {
+                if (Files.exists(directory)) {
+                    try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                        for (Path file : (Iterable<Path>) files::iterator) {
+                            Files.delete(file);
+                        }
+                    }
+                    Files.delete(directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests serving conversions over HTTP and reusing pooled buffers
+     */
+    @Test
+    public void testImageServer() throws IOException {
+        PixelBufferPool pool = new PixelBufferPool(1);
+        PixelBuffer buffer = pool.acquire(2, 1);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(2, 1), "Released buffer is reused");
+        assertNotSame(buffer, pool.acquire(2, 1), "Empty pool allocates");
+
+        PixelBufferPool bounded = new PixelBufferPool(4, 1000);
+        PixelBuffer large = bounded.acquire(20, 20);
+        bounded.release(large);
+        assertNotSame(large, bounded.acquire(20, 20), "Buffer over the byte limit is not kept");
+        PixelBuffer small = bounded.acquire(15, 15);
+        PixelBuffer other = bounded.acquire(15, 15);
+        bounded.release(small);
+        bounded.release(other);
+        assertSame(small, bounded.acquire(15, 15), "Buffer within the byte limit is kept");
+        assertNotSame(other, bounded.acquire(15, 15), "Second buffer would pass the byte limit");
+
+        ImageServer server = new ImageServer(0, EditorOptions.parse(new String[] {"--server=0", "--jobs=2"}));
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getPort();
+            java.net.HttpURLConnection connection = post(base + "/invert", "P3 1 1 255 255 0 0");
+            assertEquals(200, connection.getResponseCode(), "Invert succeeds");
+            try (InputStream in = connection.getInputStream()) {
+                assertArrayEquals(ONE_RED_PIXEL_INVERTED, ImageEditor.readPixelValues(in), "Served image is inverted");
+            }
+
+            connection = post(base + "/invert/invert?format=P6", "P3 1 1 255 255 0 0");
+            try (InputStream in = connection.getInputStream()) {
+                assertArrayEquals(new int[][] {{255, 0, 0}}, ImageEditor.readPixelValues(in), "Chained request");
+            }
+
+            assertEquals(400, post(base + "/invert", "P3 1 1 255 0").getResponseCode(), "Invalid image");
+            assertEquals(404, post(base + "/rotate", "P3 1 1 255 0 0 0").getResponseCode(), "Unknown operation");
+
+            // A header announcing more samples than the body holds is rejected before a buffer is acquired
+            assertEquals(400, post(base + "/invert", "P6 23170 23170 255 0").getResponseCode(), "Short body");
+        } finally {
+            server.stop();
+        }
+
+        EditorOptions limited = EditorOptions.parse(new String[] {"--server=0", "--max-pixels=4"});
+        assertEquals(4, limited.getMaxPixels(), "Pixel limit");
+        server = new ImageServer(0, limited);
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getPort();
+            assertEquals(200, post(base + "/invert", "P3 2 2 255 0 0 0 0 0 0 0 0 0 0 0 0").getResponseCode(),
+                         "Image at the limit");
+            assertEquals(400, post(base + "/invert", "P3 5 1 255 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0").getResponseCode(),
+                         "Image over the limit");
+        } finally {
+            server.stop();
+        }
+
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--server=8080", "-I", "a.ppm", "b.ppm"}),
+            "EditorOptions.parse with --server and files");
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--max-pixels=10", "-I", "a.ppm", "b.ppm"}),
+            "--max-pixels is for the server");
+    }
+
+    /**
+     * Tests transforming tiles through the tile cache
+     */
+    @Test
+    public void testTileCache() {
+        java.util.Random random = new java.util.Random(14);
+        PixelBuffer frame = new PixelBuffer(100, 70);
+        random.nextBytes(frame.getData());
+        Convolution blur = Convolution.blur(2);
+        int[][] expected = blur.apply(frame, RowExecutor.SERIAL).toArray();
+
+        TileCache cache = new TileCache(1 << 20, 32);
+        assertArrayEquals(expected, cache.apply(frame, blur, RowExecutor.SERIAL).toArray(),
+                          "Tiled result matches, borders included");
+        assertEquals(12, cache.getMisses(), "Every tile is filtered once");
+
+        // Only the tiles that read the changed pixel are filtered again
+        PixelBuffer changed = PixelBuffer.fromArray(frame.toArray());
+        changed.setSample(69, 299, 7);
+        assertArrayEquals(blur.apply(changed, RowExecutor.SERIAL).toArray(),
+                          cache.apply(changed, blur, new RowExecutor(4, 0)).toArray(), "Parallel tiles match");
+        assertEquals(11, cache.getHits(), "Unchanged tiles come from the cache");
+        assertEquals(13, cache.getMisses(), "Changed tile is filtered");
+
+        PixelBuffer edges = new PixelBuffer(40, 40);
+        random.nextBytes(edges.getData());
+        assertArrayEquals(Convolution.sobel().apply(edges, RowExecutor.SERIAL).toArray(),
+                          cache.apply(edges, Convolution.sobel(), RowExecutor.SERIAL).toArray(), "Tiled Sobel");
+
+        TileCache small = new TileCache(2 * (36 * 36 * 3 + 32 * 32 * 3 + 128), 32);
+        small.apply(frame, blur, RowExecutor.SERIAL);
+        assertTrue(small.getEvictions() > 0, "Tiles beyond the budget are evicted");
+        assertTrue(small.getSize() <= 2 * (36 * 36 * 3 + 32 * 32 * 3 + 128), "Cache stays within budget");
+
+        ImagePipeline pipeline = EditorOptions.parse(new String[] {"--tile-cache=1", "-I", "-blur=2", "a.ppm",
+                                                                   "b.ppm"}).getPipeline();
+        assertArrayEquals(pipeline.apply(PixelBuffer.fromArray(frame.toArray()), RowExecutor.SERIAL).toArray(),
+                          pipeline.withTileCache(new TileCache(1 << 20))
+                                  .apply(PixelBuffer.fromArray(frame.toArray()), RowExecutor.SERIAL).toArray(),
+                          "Pipeline through the tile cache");
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--tile-cache=1", "-I", "a.ppm", "b.ppm"}),
+            "Tile cache without a convolution");
+        assertEquals("The tile cache only speeds up -blur, -sharpen and -sobel", exception.getMessage(),
+                     "Testing --tile-cache with -I - exception message");
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--server=0", "--tile-cache=1"}), "Tile cache in the server");
+    }
+
+    /**
+     * Tests serving repeated conversions from the result cache
+     */
+    @Test
+    public void testResultCache() throws IOException {
+        Path directory = Files.createTempDirectory("result-cache");
+        Path cacheDirectory = directory.resolve("cache");
+        Path input = directory.resolve("in.ppm");
+        Path output = directory.resolve("out.ppm");
+        try {
+            Files.write(input, "P3 1 1 255 255 0 0".getBytes(StandardCharsets.US_ASCII));
+            EditorOptions options = EditorOptions.parse(new String[] {
+                "--cache-dir=" + cacheDirectory, "-I", input.toString(), output.toString()});
+            ImageConverter converter = new ImageConverter(options);
+
+            assertNull(converter.convert(input.toFile(), output.toFile()), "First conversion");
+            assertEquals(1, converter.getResultCache().getMisses(), "First conversion misses");
+            Files.delete(output);
+            assertNull(converter.convert(input.toFile(), output.toFile()), "Second conversion");
+            assertEquals(1, converter.getResultCache().getHits(), "Second conversion hits");
+            try (InputStream in = Files.newInputStream(output)) {
+                assertArrayEquals(ONE_RED_PIXEL_INVERTED, ImageEditor.readPixelValues(in), "Cached output");
+            }
+
+            Files.write(input, "P3 1 1 255 0 0 255".getBytes(StandardCharsets.US_ASCII));
+            assertNull(converter.convert(input.toFile(), output.toFile()), "Changed input");
+            assertEquals(2, converter.getResultCache().getMisses(), "Changed input misses");
+
+            ResultCache cache = converter.getResultCache();
+            assertNotEquals(cache.key(input, java.util.List.of("-I"), false),
+                            cache.key(input, java.util.List.of("-G"), false), "Key depends on operations");
+            assertNotEquals(cache.key(input, java.util.List.of("-I"), false),
+                            cache.key(input, java.util.List.of("-I"), true), "Key depends on format");
+
+            assertNull(EditorOptions.parse(new String[] {"--no-cache", "-I", "a.ppm", "b.ppm"}).getResultCache(),
+                       "--no-cache bypasses the cache");
+            assertNull(EditorOptions.parse(new String[] {"--mmap", "-I", "a.ppm", "b.ppm"}).getResultCache(),
+                       "Caching is off by default");
+            assertNotNull(EditorOptions.parse(new String[] {"--cache", "-I", "a.ppm", "b.ppm"}).getResultCache(),
+                          "--cache turns the cache on");
+            assertTrue(ResultCache.defaultDirectory().startsWith(Paths.get(System.getProperty("user.home"))),
+                       "Default directory belongs to the user");
+            assertThrows(IllegalArgumentException.class,
+                () -> EditorOptions.parse(new String[] {"--no-cache", "--cache", "-I", "a.ppm", "b.ppm"}),
+                "Conflicting cache options");
+            if (cacheDirectory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                assertEquals("rwx------",
+                             java.nio.file.attribute.PosixFilePermissions.toString(
+                                 Files.getPosixFilePermissions(cacheDirectory)), "Cache directory is private");
+            }
+        } finally {
+            for (Path root : new Path[] {cacheDirectory, directory}) {
+                if (Files.exists(root)) {
+                    try (java.util.stream.Stream<Path> files = Files.list(root)) {
+                        for (Path file : (Iterable<Path>) files::iterator) {
+                            Files.delete(file);
+                        }
+                    }
+                    Files.delete(root);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the stage timings and counters recorded by a conversion
+     */
+    @Test
+    public void testConversionStats() throws Exception {
+        Path directory = Files.createTempDirectory("stats");
+        Path input = directory.resolve("in.ppm");
+        Path output = directory.resolve("out.ppm");
+        try {
+            Files.write(input, "P3 2 1 255 255 0 0 0 0 255".getBytes(StandardCharsets.US_ASCII));
+            ImageConverter converter = new ImageConverter(EditorOptions.parse(new String[] {
+                "--no-cache", "--stats", "-G", input.toString(), output.toString()}));
+            assertNull(converter.convert(input.toFile(), output.toFile()), "Conversion succeeds");
+
+            ConversionStats stats = converter.getStats();
+            assertEquals(1, stats.getCalls(ConversionStats.Stage.READ), "Read stage timed");
+            assertEquals(1, stats.getCalls(ConversionStats.Stage.PROCESS), "Process stage timed");
+            assertEquals(1, stats.getCalls(ConversionStats.Stage.WRITE), "Write stage timed");
+            assertEquals(0, stats.getCalls(ConversionStats.Stage.CACHE), "No cache with --no-cache");
+            assertEquals(Files.size(input), stats.getBytesRead(), "Bytes read");
+            assertEquals(Files.size(output), stats.getBytesWritten(), "Bytes written");
+            assertEquals(2, stats.getPixels(), "Pixels processed");
+            assertTrue(stats.toString().contains("1 conversions"), "Summary");
+
+            assertTrue(stats.register(), "Statistics registered");
+            Object pixels = java.lang.management.ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new javax.management.ObjectName(ConversionStats.OBJECT_NAME), "Pixels");
+            assertEquals(2L, pixels, "Pixels published through JMX");
+
+            stats.reset();
+            assertEquals(0, stats.getConversions(), "Counters reset");
+        } finally {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(input);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Tests blur, sharpen and edge detection
+     */
+    @Test
+    public void testConvolution() {
+        assertTrue(Kernel.gaussian(3).isSeparable(), "Gaussian is separable");
+        assertTrue(Kernel.SOBEL_X.isSeparable(), "Sobel is separable");
+        assertFalse(Kernel.SHARPEN.isSeparable(), "Sharpen is not separable");
+
+        PixelBuffer flat = new PixelBuffer(5, 4);
+        java.util.Arrays.fill(flat.getData(), (byte) 90);
+        for (ImageOperation operation : new ImageOperation[] {Convolution.blur(2), Convolution.sharpen()}) {
+            assertArrayEquals(flat.toArray(), operation.apply(flat, RowExecutor.SERIAL).toArray(),
+                              "Flat image is unchanged, edges included");
+        }
+        int[][] edges = Convolution.sobel().apply(flat, RowExecutor.SERIAL).toArray();
+        assertArrayEquals(new int[flat.getHeight()][flat.getWidth() * 3], edges, "Flat image has no edges");
+
+        // Box blur against a direct sum with clamped edges
+        java.util.Random random = new java.util.Random(17);
+        PixelBuffer image = new PixelBuffer(37, 23);
+        random.nextBytes(image.getData());
+        PixelBuffer blurred = new Convolution(Kernel.box(1)).apply(image, RowExecutor.SERIAL);
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int index = 0; index < image.getRowLength(); index++) {
+                int sum = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int y = Math.min(Math.max(row + dy, 0), image.getHeight() - 1);
+                        int x = Math.min(Math.max(index / 3 + dx, 0), image.getWidth() - 1);
+                        sum += image.getSample(y, x * 3 + index % 3);
+                    }
+                }
+                assertTrue(Math.abs(Math.round(sum / 9f) - blurred.getSample(row, index)) <= 1,
+                           "Box blur at row " + row + ", sample " + index);
+            }
+        }
+
+        PixelBuffer large = new PixelBuffer(300, 250);
+        random.nextBytes(large.getData());
+        RowExecutor parallel = new RowExecutor(4, 0);
+        for (ImageOperation operation : new ImageOperation[] {Convolution.blur(3), Convolution.sharpen(),
+                                                              Convolution.sobel()}) {
+            assertArrayEquals(operation.apply(large, RowExecutor.SERIAL).toArray(),
+                              operation.apply(large, parallel).toArray(), "Parallel matches serial");
+        }
+
+        EditorOptions options = EditorOptions.parse(new String[] {"-G", "-I", "-blur=2", "-H", "a.ppm", "b.ppm"});
+        assertEquals(3, options.getPipeline().getStageCount(), "Blur is a barrier between fused stages");
+        assertNull(options.getOperation(), "No single per-pixel operation");
+        Exception exception = assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--stream", "-sobel", "a.ppm", "b.ppm"}),
+            "EditorOptions.parse with --stream -sobel");
+        assertEquals("Only per-pixel operations and a box resize can be streamed", exception.getMessage(),
+                     "Testing --stream -sobel - exception message");
+    }
+
+    /**
+     * Tests nearest, bilinear and box resizing, and resizing while parsing
+     */
+    @Test
+    public void testResize() throws IOException {
+        PixelBuffer small = PixelBuffer.fromArray(new int[][] {{0, 0, 0, 100, 100, 100, 10, 20, 30, 30, 40, 50},
+                                                               {200, 200, 200, 40, 40, 40, 50, 60, 70, 70, 80, 90}});
+        assertArrayEquals(new int[][] {{85, 85, 85, 40, 50, 60}},
+                          new Resize(2, 1, Resize.Mode.BOX).apply(small, RowExecutor.SERIAL).toArray(),
+                          "Box averages the covered pixels");
+        for (Resize.Mode mode : Resize.Mode.values()) {
+            assertArrayEquals(small.toArray(), new Resize(4, 2, mode).apply(small, RowExecutor.SERIAL).toArray(),
+                              "Same size is unchanged with " + mode);
+        }
+        PixelBuffer pixel = PixelBuffer.fromArray(new int[][] {{1, 2, 3}});
+        assertArrayEquals(new int[][] {{1, 2, 3, 1, 2, 3, 1, 2, 3}, {1, 2, 3, 1, 2, 3, 1, 2, 3}},
+                          new Resize(3, 2, Resize.Mode.NEAREST).apply(pixel, RowExecutor.SERIAL).toArray(),
+                          "Nearest upscale repeats the pixel");
+
+        java.util.Random random = new java.util.Random(18);
+        PixelBuffer large = new PixelBuffer(301, 203);
+        random.nextBytes(large.getData());
+        RowExecutor parallel = new RowExecutor(4, 0);
+        for (Resize.Mode mode : Resize.Mode.values()) {
+            Resize resize = new Resize(97, 61, mode);
+            assertArrayEquals(resize.apply(large, RowExecutor.SERIAL).toArray(), resize.apply(large, parallel).toArray(),
+                              "Parallel matches serial with " + mode);
+        }
+
+        // Resizing while parsing matches resizing the whole image
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ImageEditor.writePPM(file, large, true);
+        ImagePipeline pipeline = EditorOptions.parse(new String[] {"--stream", "-I", "-resize=40x30", "-G",
+                                                                   "a.ppm", "b.ppm"}).getPipeline();
+        assertTrue(pipeline.canReadResized(), "Pipeline can be applied while parsing");
+        int[][] streamed = pipeline.readResized(new ByteArrayInputStream(file.toByteArray()), RowExecutor.SERIAL)
+                                   .toArray();
+        int[][] whole = pipeline.apply(PixelBuffer.fromArray(large.toArray()), RowExecutor.SERIAL).toArray();
+        for (int row = 0; row < whole.length; row++) {
+            for (int i = 0; i < whole[row].length; i++) {
+                assertTrue(Math.abs(whole[row][i] - streamed[row][i]) <= 1, "Streamed resize at " + row + ", " + i);
+            }
+        }
+        assertNull(pipeline.readResized(stream("P3 2 2 255 0 0 0"), RowExecutor.SERIAL), "Truncated file");
+
+        // A streamed upscale keeps several output rows pending at once
+        ImagePipeline upscale = EditorOptions.parse(new String[] {"--stream", "-resize=450x710", "a.ppm", "b.ppm"})
+                                             .getPipeline();
+        streamed = upscale.readResized(new ByteArrayInputStream(file.toByteArray()), RowExecutor.SERIAL).toArray();
+        whole = upscale.apply(PixelBuffer.fromArray(large.toArray()), RowExecutor.SERIAL).toArray();
+        for (int row = 0; row < whole.length; row++) {
+            for (int i = 0; i < whole[row].length; i++) {
+                assertTrue(Math.abs(whole[row][i] - streamed[row][i]) <= 1, "Streamed upscale at " + row + ", " + i);
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"-resize=10x0", "a.ppm", "b.ppm"}), "Invalid resize");
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--stream", "-resize=40000x40000", "a.ppm", "b.ppm"}),
+            "Result too large for a PixelBuffer");
+        assertFalse(Resize.isValidSize(40000, 40000), "Too many samples");
+        assertTrue(Resize.isValidSize(Resize.MAX_SIZE, 1), "Widest result");
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--stream", "-resize=10x10:bilinear", "a.ppm", "b.ppm"}),
+            "Only a box resize is streamed");
+    }
+
+    /**
+     * Tests decoding into reused buffers without allocating per image
+     */
+    @Test
+    public void testPpmCodec() throws IOException {
+        PixelBuffer buffer = new PixelBuffer(4, 4);
+        byte[] data = buffer.getData();
+        assertSame(buffer, buffer.reshape(2, 3), "Reshape returns the buffer");
+        assertSame(data, buffer.getData(), "Smaller image reuses the array");
+        assertEquals(6, buffer.getRowLength(), "Reshaped rows are packed");
+        buffer.reshape(5, 5);
+        assertEquals(75, buffer.getCapacity(), "Larger image grows the array");
+
+        PpmCodec codec = new PpmCodec();
+        assertTrue(codec.read(stream("P3 2 1 255 1 2 3 4 5 6"), buffer), "Valid P3 file");
+        assertArrayEquals(new int[][] {{1, 2, 3, 4, 5, 6}}, buffer.toArray(), "Samples decoded in place");
+        assertFalse(codec.read(stream("P3 2 1 255 1 2 3"), buffer), "Truncated file");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ImageEditor.writePPM(expected, buffer, false);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        codec.write(actual, buffer, false);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray(), "Codec writes the same file");
+
+        PixelBufferPool pool = new PixelBufferPool(1);
+        PixelBuffer pooled = pool.acquire(8, 8);
+        pool.release(pooled);
+        assertSame(pooled, pool.acquire(4, 2), "Released buffer is reshaped for a smaller image");
+
+        // Once warmed up, parsing, filtering and writing allocate nothing per image. The filter is
+        // table-driven, since a Vector API kernel boxes its vectors until the JIT compiles it
+        PixelOperation filter = PointOperation.brightness(-40);
+        PixelBuffer sample = new PixelBuffer(64, 64);
+        new java.util.Random(19).nextBytes(sample.getData());
+        for (boolean binary : new boolean[] {true, false}) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            codec.write(encoded, sample, binary);
+            ByteArrayInputStream in = new ByteArrayInputStream(encoded.toByteArray());
+            ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.size() * 2);
+            long allocated = 0;
+            for (int i = 0; i < 200; i++) {
+                if (i == 100) allocated = ConversionStats.threadAllocatedBytes();
+                in.reset();
+                out.reset();
+                assertTrue(codec.read(in, buffer), "Sample decodes");
+                RowExecutor.SERIAL.execute(buffer, filter);
+                codec.write(out, buffer, binary);
+            }
+            allocated = ConversionStats.threadAllocatedBytes() - allocated;
+            assertTrue(allocated < 64 * 1024, "Allocated " + allocated + " bytes in 100 images");
+        }
+    }
+
+    /**
+     * Tests histograms and statistics gathered in one pass, and the
+     * operations derived from them
+     */
+    @Test
+    public void testImageStatistics() {
+        PixelBuffer image = PixelBuffer.fromArray(new int[][] {{0, 10, 20, 100, 110, 120},
+                                                               {200, 210, 220, 255, 255, 255}});
+        ImageStatistics statistics = ImageStatistics.of(image, RowExecutor.SERIAL);
+        assertEquals(4, statistics.getPixelCount(), "Pixel count");
+        assertEquals(0, statistics.getMin(ImageStatistics.RED), "Red minimum");
+        assertEquals(255, statistics.getMax(ImageStatistics.BLUE), "Blue maximum");
+        assertEquals(146.25, statistics.getMean(ImageStatistics.GREEN), 1e-9, "Green mean");
+        assertEquals(1, statistics.getHistogram(ImageStatistics.RED)[100], "Red histogram");
+        assertEquals(255, statistics.getMax(ImageStatistics.LUMINANCE), "White luminance");
+
+        // Per-thread histograms merge to the serial result
+        PixelBuffer large = new PixelBuffer(517, 389);
+        new java.util.Random(20).nextBytes(large.getData());
+        ImageStatistics serial = ImageStatistics.of(large, RowExecutor.SERIAL);
+        ImageStatistics parallel = ImageStatistics.of(large, new RowExecutor(4, 0));
+        for (int channel = ImageStatistics.RED; channel <= ImageStatistics.LUMINANCE; channel++) {
+            assertArrayEquals(serial.getHistogram(channel), parallel.getHistogram(channel),
+                              "Parallel histogram of channel " + channel);
+        }
+
+        // Two clusters of samples are split between them
+        PixelBuffer bimodal = PixelBuffer.fromArray(new int[][] {{40, 42, 44, 41, 43, 45, 200, 202, 204, 201, 203, 205}});
+        int threshold = ImageStatistics.of(bimodal, RowExecutor.SERIAL).getOtsuThreshold();
+        assertTrue(threshold > 45 && threshold <= 200, "Otsu threshold " + threshold);
+
+        PixelBuffer dim = PixelBuffer.fromArray(new int[][] {{100, 100, 100, 150, 150, 150}});
+        ImagePipeline pipeline = ImagePipeline.of(ImageOperation.of(PointOperation.INVERT),
+                                                  AdaptiveOperation.AUTO_CONTRAST);
+        ImageStatistics.Collector collector = new ImageStatistics.Collector();
+        assertArrayEquals(new int[][] {{255, 255, 255, 0, 0, 0}},
+                          pipeline.apply(dim, RowExecutor.SERIAL, collector).toArray(),
+                          "Inverted then stretched to the full range");
+        assertEquals(2, collector.getStatistics().getPixelCount(), "Collector sees the result");
+        assertEquals(0, collector.getStatistics().getMin(ImageStatistics.RED), "Statistics of the result");
+
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--stream", "-H=otsu", "a.ppm", "b.ppm"}),
+            "Adaptive operations are not streamed");
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--histogram", "--batch", "-I", "a", "b"}),
+            "Histogram of a batch");
+
+        EditorOptions histogramOnly = EditorOptions.parse(new String[] {"--histogram", "a.ppm"});
+        assertTrue(histogramOnly.isHistogramOnly(), "Histogram of the input alone");
+        assertNull(histogramOnly.getOutput(), "Histogram alone has no output");
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--stats", "a.ppm"}), "Input alone without --histogram");
+        String[] table = statistics.histogramTable().split(System.lineSeparator());
+        assertEquals(257, table.length, "Header and one line per value");
+        assertEquals(java.util.List.of("255", "1", "1", "1", "1"), java.util.List.of(table[256].trim().split(" +")),
+                     "Counts of 255");
+    }
+
+    /**
+     * Tests parsing a P3 file in parallel chunks against the sequential reader
+     */
+    @Test
+    public void testParallelPpmDecoder() throws IOException {
+        PixelBuffer image = new PixelBuffer(211, 157);
+        new java.util.Random(21).nextBytes(image.getData());
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageEditor.writePPM(encoded, image, false);
+        String text = encoded.toString(StandardCharsets.US_ASCII);
+        RowExecutor parallel = new RowExecutor(4, 0);
+
+        Path file = Files.createTempFile("parallel", ".ppm");
+        try {
+            Files.write(file, encoded.toByteArray());
+            assertArrayEquals(image.toArray(), ParallelPpmDecoder.read(file, parallel).toArray(),
+                              "Parallel decode matches the image");
+
+            Files.write(file, (text + " 7 junk").getBytes(StandardCharsets.US_ASCII));
+            assertArrayEquals(image.toArray(), ParallelPpmDecoder.read(file, parallel).toArray(),
+                              "Data after the samples is ignored");
+
+            Files.write(file, text.replaceFirst("\\s\\S+\\s*$", "").getBytes(StandardCharsets.US_ASCII));
+            assertNull(ParallelPpmDecoder.read(file, parallel), "Truncated file");
+
+            int middle = text.length() / 2;
+            int space = text.indexOf(' ', middle);
+            Files.write(file, (text.substring(0, space) + " 256" + text.substring(text.indexOf(' ', space + 1)))
+                              .getBytes(StandardCharsets.US_ASCII));
+            assertNull(ParallelPpmDecoder.read(file, parallel), "Out of range sample");
+
+            Files.write(file, (text.substring(0, space) + " # comment\n" + text.substring(space))
+                              .getBytes(StandardCharsets.US_ASCII));
+            assertArrayEquals(image.toArray(), ParallelPpmDecoder.read(file, parallel).toArray(),
+                              "Comments are read sequentially");
+
+            Files.write(file, "P3 2 1 255 1 +2 003 4 5 -0".getBytes(StandardCharsets.US_ASCII));
+            assertArrayEquals(new int[][] {{1, 2, 3, 4, 5, 0}},
+                              ParallelPpmDecoder.read(file, new RowExecutor(4, 0)).toArray(),
+                              "Small file matches the sequential rules");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tests writing a P3 file in parallel bands against the sequential writer
+     */
+    @Test
+    public void testParallelPpmEncoder() throws IOException {
+        PixelBuffer image = new PixelBuffer(199, 163);
+        new java.util.Random(22).nextBytes(image.getData());
+        Path file = Files.createTempFile("parallel-out", ".ppm");
+        try {
+            for (boolean binary : new boolean[] {false, true}) {
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                ImageEditor.writePPM(expected, image, binary);
+                Files.write(file, new byte[expected.size() + 100]);
+                ParallelPpmEncoder.write(file, image, binary, new RowExecutor(4, 0));
+                assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file),
+                                  "Parallel output matches writePPM, binary " + binary);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tests sampling previews from parsed images and from P6 files
+     */
+    @Test
+    public void testPreview() throws IOException {
+        PixelBuffer image = PixelBuffer.fromArray(new int[][] {{1, 1, 1, 2, 2, 2, 3, 3, 3},
+                                                               {4, 4, 4, 5, 5, 5, 6, 6, 6},
+                                                               {7, 7, 7, 8, 8, 8, 9, 9, 9}});
+        assertArrayEquals(new int[][] {{1, 1, 1, 3, 3, 3}, {7, 7, 7, 9, 9, 9}},
+                          Preview.sample(image, 2).toArray(), "Every second row and column");
+        assertEquals(new File("dir", "out.preview.ppm"), Preview.fileFor(new File("dir", "out.ppm")),
+                     "Preview file name");
+
+        PixelBuffer large = new PixelBuffer(103, 71);
+        new java.util.Random(23).nextBytes(large.getData());
+        Path file = Files.createTempFile("preview", ".ppm");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                ImageEditor.writePPM(out, large, true);
+            }
+            assertArrayEquals(Preview.sample(large, 8).toArray(), Preview.read(file, 8).toArray(),
+                              "P6 preview read from the sampled rows");
+            try (OutputStream out = Files.newOutputStream(file)) {
+                ImageEditor.writePPM(out, large, false);
+            }
+            assertNull(Preview.read(file, 8), "P3 rows cannot be located");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        // A resize in the preview is scaled down by the preview step
+        Path directory = Files.createTempDirectory("preview");
+        Path input = directory.resolve("in.ppm");
+        Path output = directory.resolve("out.ppm");
+        Path preview = directory.resolve("out" + Preview.SUFFIX);
+        try {
+            try (OutputStream out = Files.newOutputStream(input)) {
+                ImageEditor.writePPM(out, large, true);
+            }
+            ImageConverter converter = new ImageConverter(EditorOptions.parse(new String[] {
+                "--no-cache", "--preview=8", "-resize=200x160", input.toString(), output.toString()}));
+            assertNull(converter.convert(input.toFile(), output.toFile()), "Conversion with a preview");
+            try (InputStream in = Files.newInputStream(preview)) {
+                PixelBuffer written = ImageEditor.readPixelBuffer(in);
+                assertEquals(25, written.getWidth(), "Preview width");
+                assertEquals(20, written.getHeight(), "Preview height");
+            }
+
+            Files.delete(preview);
+            Files.write(input, "P3 2 2 255 0 0 0".getBytes(StandardCharsets.US_ASCII));
+            assertEquals("Invalid input file", converter.convert(input.toFile(), output.toFile()), "Truncated input");
+            assertFalse(Files.exists(preview), "No preview of a failed conversion");
+        } finally {
+            for (Path path : new Path[] {input, output, preview, directory}) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--preview=8", "--stream", "-I", "a.ppm", "b.ppm"}),
+            "Preview of a stream");
+        assertThrows(IllegalArgumentException.class,
+            () -> EditorOptions.parse(new String[] {"--preview=1", "-I", "a.ppm", "b.ppm"}), "Step of 1");
+    }
+
+    /**
+     * Tests the greyscale models against their floating-point formulas
+     */
+    @Test
+    public void testGreyModel() {
+        PixelBuffer image = new PixelBuffer(64, 64);
+        new java.util.Random(24).nextBytes(image.getData());
+        byte[] data = image.getData();
+
+        PixelBuffer average = PixelBuffer.fromArray(image.toArray());
+        GreyModel.AVERAGE.apply(average.getData(), 0, average.getData().length);
+        PixelBuffer expected = PixelBuffer.fromArray(image.toArray());
+        ImageEditor.greyScaleImage(expected);
+        assertArrayEquals(expected.toArray(), average.toArray(), "Average matches greyScale");
+
+        for (GreyModel model : GreyModel.values()) {
+            PixelBuffer grey = PixelBuffer.fromArray(image.toArray());
+            model.apply(grey.getData(), 0, grey.getData().length);
+            for (int i = 0; i < data.length; i += 3) {
+                int r = data[i] & 0xFF;
+                int g = data[i + 1] & 0xFF;
+                int b = data[i + 2] & 0xFF;
+                double exact;
+                switch (model) {
+                    case REC601: exact = 0.299 * r + 0.587 * g + 0.114 * b; break;
+                    case REC709: exact = 0.2126 * r + 0.7152 * g + 0.0722 * b; break;
+                    case LIGHTNESS: exact = (Math.max(r, Math.max(g, b)) + Math.min(r, Math.min(g, b))) / 2; break;
+                    case RED: exact = r; break;
+                    case GREEN: exact = g; break;
+                    case BLUE: exact = b; break;
+                    default: exact = (r + g + b) / 3; break;
+                }
+                int actual = grey.getData()[i] & 0xFF;
+                assertTrue(Math.abs(actual - exact) <= 0.51, model + " of " + r + ", " + g + ", " + b);
+                assertEquals(actual, grey.getData()[i + 2] & 0xFF, "Channels are equal");
+            }
+        }
+        byte[] white = {(byte) 255, (byte) 255, (byte) 255};
+        GreyModel.REC709.apply(white, 0, 3);
+        assertEquals(255, white[0] & 0xFF, "White stays white");
+
+        assertEquals(GreyModel.REC709, EditorOptions.operationFor("-G=rec709"), "Model flag");
+        assertNull(EditorOptions.operationFor("-G=sepia"), "Unknown model");
+    }
+
+    /**
+     * Tests writing and reading the compressed PXB container
+     */
+    @Test
+    public void testPxbFormat() throws IOException {
+        PixelBuffer image = new PixelBuffer(301, 877);
+        byte[] data = image.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / 3 % 301 + i % 3 * 40);
+        }
+        image.getData()[12345] = 7;
+
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        PxbFormat.write(serial, image, RowExecutor.SERIAL);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        PxbFormat.write(parallel, image, new RowExecutor(4, 0));
+        assertArrayEquals(serial.toByteArray(), parallel.toByteArray(), "Parallel compression is deterministic");
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ImageEditor.writePPM(text, image, false);
+        assertTrue(serial.size() * 4 < text.size(), "Smaller than P3: " + serial.size() + " of " + text.size());
+
+        byte[] file = serial.toByteArray();
+        assertArrayEquals(image.toArray(),
+                          PxbFormat.read(new ByteArrayInputStream(file), new RowExecutor(4, 0)).toArray(),
+                          "Parallel decode round trip");
+        assertArrayEquals(image.toArray(), ImageEditor.readPixelValues(new ByteArrayInputStream(file)),
+                          "Read through the PPM load API");
+
+        assertNull(PxbFormat.read(new ByteArrayInputStream(java.util.Arrays.copyOf(file, file.length - 10)),
+                                  RowExecutor.SERIAL), "Truncated file");
+        byte[] corrupt = file.clone();
+        corrupt[corrupt.length / 2] ^= 0x55;
+        PixelBuffer damaged = PxbFormat.read(new ByteArrayInputStream(corrupt), RowExecutor.SERIAL);
+        assertTrue(damaged == null || !java.util.Arrays.deepEquals(damaged.toArray(), image.toArray()), "Corrupt block");
+        assertNull(ImageEditor.readPixelValues(stream("PXB0")), "Wrong magic");
+
+        // A forged header claiming a 2 GB band fails without allocating it
+        ByteArrayOutputStream forged = new ByteArrayOutputStream();
+        java.io.DataOutputStream header = new java.io.DataOutputStream(forged);
+        header.write(PxbFormat.MAGIC);
+        header.writeInt(20000);
+        header.writeInt(20000);
+        header.writeInt(20000);
+        header.writeInt(Integer.MAX_VALUE - 8);
+        assertNull(PxbFormat.read(new ByteArrayInputStream(forged.toByteArray()), RowExecutor.SERIAL),
+                   "Band longer than Deflater can produce");
+        forged.reset();
+        header.write(PxbFormat.MAGIC);
+        header.writeInt(20000);
+        header.writeInt(20000);
+        header.writeInt(20000);
+        header.writeInt(1 << 30);
+        assertNull(PxbFormat.read(new ByteArrayInputStream(forged.toByteArray()), RowExecutor.SERIAL),
+                   "Band missing from the file");
+        assertEquals(new File("dir", "out.preview.ppm"), Preview.fileFor(new File("dir", "out.pxb")),
+                     "Preview of a PXB output");
+        assertArrayEquals(new int[][] {{1, 2, 3}}, ImageEditor.readPixelValues(stream("P3 1 1 255 1 2 3")),
+                          "PPM files still read");
+    }
+
+    /**
+     * POSTs a PPM file to a URL.
+     *
+     * @param url URL to post to
+     * @param body PPM file contents
+     * @return connection with the request sent
+     */
+    private static java.net.HttpURLConnection post(String url, String body) throws IOException {
+        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (java.io.OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.US_ASCII));
+        }
+        return connection;
+    }
+
+    /**
+     * Creates a deep copy of a 2D array.
+     *
+     * @param pixels 2D array to copy
+     * @return copy of pixels
+     */
+    private static int[][] copy(int[][] pixels) {
+        int[][] result = new int[pixels.length][];
+        for (int i = 0; i < pixels.length; i++) {
+            result[i] = pixels[i].clone();
+        }
+        return result;
+    }
+
+    /**
+     * Creates a byte stream holding the given text.
+     *
+     * @param text contents of the stream
+     * @return InputStream over the text
+     */
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
     /**
      * Tests outputPPM
      */
@@ -0,0 +1,63 @@
+/**
+ * An ImageOperation transforms a whole image. Unlike a PixelOperation it may
+ * read the neighbours of each pixel or change the size of the image, so it
+ * cannot be applied to a band of rows on its own, and it returns its result
+ * as a new PixelBuffer or as the image it was given.
+ *
+ * @author Moksh Thakore
+ */
+public interface ImageOperation {
+
+    /**
+     * Transforms an image.
+     *
+     * @param image image to transform, which may be modified
+     * @param executor executor for work on bands of rows
+     * @return transformed image, which may be the image given
+     */
+    PixelBuffer apply(PixelBuffer image, RowExecutor executor);
+
+    /**
+     * Wraps a PixelOperation, which transforms the image in place.
+     *
+     * @param operation per-pixel operation
+     * @return image operation applying it to every row
+     */
+    static ImageOperation of(PixelOperation operation) {
+        return new PixelStage(operation);
+    }
+
+    /**
+     * An ImageOperation that applies a PixelOperation in place.
+     */
+    final class PixelStage implements ImageOperation {
+
+        /** Per-pixel operation */
+        private final PixelOperation operation;
+
+        /**
+         * Constructs a stage.
+         *
+         * @param operation per-pixel operation
+         */
+        PixelStage(PixelOperation operation) {
+            if (operation == null) throw new IllegalArgumentException("Null operation");
+            this.operation = operation;
+        }
+
+        /**
+         * Returns the per-pixel operation.
+         *
+         * @return operation applied to every row
+         */
+        public PixelOperation getOperation() {
+            return operation;
+        }
+
+        @Override
+        public PixelBuffer apply(PixelBuffer image, RowExecutor executor) {
+            executor.execute(image, operation);
+            return image;
+        }
+    }
+}
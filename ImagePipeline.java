@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An ImagePipeline applies an ordered sequence of ImageOperations. Adjacent
+ * per-pixel stages are fused into one OperationChain, so they still run in a
+ * single traversal of the image; an operation that reads neighbouring pixels
+ * is a barrier between two such traversals. An AdaptiveOperation measures the
+ * image in the same traversal as the per-pixel stages before it, and the
+ * statistics of the result can be gathered in the traversal of the last
+ * per-pixel stage. A pipeline that starts with a
+ * box resize, after at most per-pixel work, can instead be applied while the
+ * image is parsed.
+ *
+ * @author Moksh Thakore
+ */
+public class ImagePipeline implements ImageOperation {
+
+    /** Stages left after fusing adjacent per-pixel stages */
+    private final ImageOperation[] stages;
+
+    /** Index of the first stage if it is a box resize that can run while parsing, or -1 */
+    private final int streamedResize;
+
+    /**
+     * Constructs a pipeline, fusing adjacent per-pixel stages.
+     *
+     * @param operations operations in the order they are applied
+     */
+    public ImagePipeline(List<? extends ImageOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Empty chain");
+        }
+        List<ImageOperation> fused = new ArrayList<>();
+        List<PixelOperation> run = new ArrayList<>();
+        for (ImageOperation operation : operations) {
+            if (operation == null) throw new IllegalArgumentException("Null operation");
+            if (operation instanceof PixelStage) {
+                run.add(((PixelStage) operation).getOperation());
+                continue;
+            }
+            if (!run.isEmpty()) {
+                fused.add(ImageOperation.of(OperationChain.of(run.toArray(new PixelOperation[0]))));
+                run.clear();
+            }
+            fused.add(operation);
+        }
+        if (!run.isEmpty()) {
+            fused.add(ImageOperation.of(OperationChain.of(run.toArray(new PixelOperation[0]))));
+        }
+        this.stages = fused.toArray(new ImageOperation[0]);
+
+        // A box resize can be computed while parsing if at most per-pixel work comes before it
+        int first = stages[0] instanceof PixelStage ? 1 : 0;
+        this.streamedResize = first < stages.length && stages[first] instanceof Resize
+                              && ((Resize) stages[first]).getMode() == Resize.Mode.BOX ? first : -1;
+    }
+
+    /**
+     * Creates a pipeline applying the given operations in order.
+     *
+     * @param operations operations in the order they are applied
+     * @return the pipeline
+     */
+    public static ImagePipeline of(ImageOperation... operations) {
+        return new ImagePipeline(Arrays.asList(operations));
+    }
+
+    /**
+     * Returns the number of stages left after fusing per-pixel stages.
+     *
+     * @return number of traversals of the image
+     */
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    /**
+     * Returns the single per-pixel operation equivalent to the pipeline, for
+     * the paths that process part of an image at a time.
+     *
+     * @return the fused operation, or null if the pipeline reads
+     *         neighbouring pixels or resizes the image
+     */
+    public PixelOperation getPixelOperation() {
+        if (stages.length == 1 && stages[0] instanceof PixelStage) {
+            return ((PixelStage) stages[0]).getOperation();
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether any stage is a Convolution, which a TileCache can speed up.
+     *
+     * @return true if the pipeline convolves the image
+     */
+    public boolean hasConvolution() {
+        for (ImageOperation stage : stages) {
+            if (stage instanceof Convolution) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the pipeline with every convolution applied through a tile
+     * cache, so tiles that repeat between images are not filtered again.
+     *
+     * @param cache cache of filtered tiles
+     * @return pipeline giving the same results
+     */
+    public ImagePipeline withTileCache(TileCache cache) {
+        if (cache == null) throw new IllegalArgumentException("Null cache");
+        List<ImageOperation> cached = new ArrayList<>();
+        for (ImageOperation stage : stages) {
+            cached.add(stage instanceof Convolution ? cache.cached((Convolution) stage) : stage);
+        }
+        return new ImagePipeline(cached);
+    }
+
+    /**
+     * Returns the pipeline to apply to a preview sampled from every
+     * step-th row and column, with each resize scaled down by the same step
+     * so the preview stays at the lower resolution.
+     *
+     * @param step distance between the sampled rows and columns, at least 1
+     * @return pipeline for the preview
+     */
+    public ImagePipeline forPreview(int step) {
+        if (step < 1) throw new IllegalArgumentException("Invalid step");
+        List<ImageOperation> scaled = new ArrayList<>();
+        for (ImageOperation stage : stages) {
+            scaled.add(stage instanceof Resize ? ((Resize) stage).scaledDown(step) : stage);
+        }
+        return new ImagePipeline(scaled);
+    }
+
+    /**
+     * Returns whether the pipeline can be applied while the image is parsed,
+     * without holding the full-size image: it is per-pixel operations, then
+     * a box resize, then any operations on the resized image.
+     *
+     * @return true if readResized can be used
+     */
+    public boolean canReadResized() {
+        return streamedResize >= 0;
+    }
+
+    /**
+     * Reads a PPM file and applies the pipeline, box-downscaling the image
+     * while it is parsed so that only one full-size row is held at a time.
+     *
+     * @param in InputStream for the input PPM file
+     * @param executor executor for the operations after the resize
+     * @return the transformed image, or null if the file is invalid
+     * @throws IOException if the stream cannot be read
+     */
+    public PixelBuffer readResized(InputStream in, RowExecutor executor) throws IOException {
+        if (in == null) throw new IllegalArgumentException("Null file");
+        if (!canReadResized()) throw new IllegalStateException("Pipeline does not start with a box resize");
+
+        PpmTokenizer tokens = new PpmTokenizer(in);
+        PpmHeader header = PpmHeader.read(tokens);
+        if (header == null) return null;
+
+        PixelOperation before = streamedResize == 1 ? ((PixelStage) stages[0]).getOperation() : null;
+        PixelBuffer image = ((Resize) stages[streamedResize]).read(tokens, header, before);
+        if (image == null) return null;
+        for (int i = streamedResize + 1; i < stages.length; i++) {
+            image = stages[i].apply(image, executor);
+        }
+        return image;
+    }
+
+    @Override
+    public PixelBuffer apply(PixelBuffer image, RowExecutor executor) {
+        return apply(image, executor, null);
+    }
+
+    /**
+     * Applies the pipeline, gathering the statistics of the result in the
+     * same traversal as the last stage if it is per-pixel.
+     *
+     * @param image image to transform, which may be modified
+     * @param executor executor for work on bands of rows
+     * @param collector collector given every pixel of the result, or null
+     * @return transformed image, which may be the image given
+     */
+    public PixelBuffer apply(PixelBuffer image, RowExecutor executor, ImageStatistics.Collector collector) {
+        for (int i = 0; i < stages.length; i++) {
+            ImageStatistics.Collector last = i == stages.length - 1 ? collector : null;
+            ImageOperation stage = stages[i];
+            if (stage instanceof PixelStage && i + 1 < stages.length && stages[i + 1] instanceof AdaptiveOperation) {
+                // Measure the image while applying the per-pixel stage before the adaptive operation
+                ImageStatistics.Collector measured = new ImageStatistics.Collector();
+                executor.execute(image, OperationChain.of(((PixelStage) stage).getOperation(), measured));
+                i++;
+                PointOperation derived = ((AdaptiveOperation) stages[i]).operationFor(measured.getStatistics());
+                executor.execute(image, withCollector(derived, i == stages.length - 1 ? collector : null));
+            } else if (stage instanceof AdaptiveOperation) {
+                PointOperation derived = ((AdaptiveOperation) stage).operationFor(ImageStatistics.of(image, executor));
+                executor.execute(image, withCollector(derived, last));
+            } else if (stage instanceof PixelStage) {
+                executor.execute(image, withCollector(((PixelStage) stage).getOperation(), last));
+            } else {
+                image = stage.apply(image, executor);
+                if (last != null) {
+                    executor.execute(image, last);
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Appends a collector to a per-pixel operation.
+     *
+     * @param operation per-pixel operation
+     * @param collector collector given the output of the operation, or null
+     * @return operation followed by the collector in the same traversal
+     */
+    private static PixelOperation withCollector(PixelOperation operation, ImageStatistics.Collector collector) {
+        return collector == null ? operation : OperationChain.of(operation, collector);
+    }
+}
@@ -0,0 +1,358 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ImageServer class keeps the editor resident behind an HTTP port on the
+ * loopback interface, so that conversions are served by code the JIT has
+ * already compiled instead of by a fresh JVM each time. A client POSTs a PPM
+ * file to a path naming the operations to apply, such as /invert or
+ * /greyScale/highContrast, and receives the result. Requests are handled
+ * concurrently on a fixed pool. Each handler thread decodes and encodes
+ * through its own PpmCodec, and pixel buffers are reused between requests,
+ * so decoding and encoding allocate nothing once the buffers have grown.
+ * At most PixelBufferPool.DEFAULT_MAX_IDLE_BYTES of idle buffers are kept,
+ * so a few maximum-size images do not pin gigabytes between requests.
+ *
+ * The optional query "format=P3" or "format=P6" selects the output format;
+ * otherwise the server's configured format is used. An image is rejected
+ * before any buffer is acquired for it if its header announces more pixels
+ * than the configured maximum, or more samples than the request body has
+ * bytes; the maximum is set with --max-pixels and is 64 megapixels by
+ * default. A GET of /stats reports the stage timings and counters, which
+ * are also published as a JMX MBean.
+ *
+ * @author Moksh Thakore
+ */
+public class ImageServer {
+
+    /** Largest image accepted when --max-pixels is not given, 64 megapixels */
+    public static final long DEFAULT_MAX_PIXELS = 1L << 26;
+
+    /** Number of times the request path is exercised before the server starts */
+    private static final int WARM_UP_ITERATIONS = 200;
+
+    /** Maximum number of request paths whose operations are kept */
+    private static final int MAX_CACHED_PATHS = 256;
+
+    /** Options giving the default output format and per-image executor */
+    private final EditorOptions options;
+
+    /** Executor for the operations applied to each image */
+    private final RowExecutor executor;
+
+    /** Operations by request path, so each path builds its chain once */
+    private final ConcurrentHashMap<String, PixelOperation> operations = new ConcurrentHashMap<>();
+
+    /** Timings and counters of the requests */
+    private final ConversionStats stats = new ConversionStats();
+
+    /** Buffers reused between requests */
+    private final PixelBufferPool pool = new PixelBufferPool();
+
+    /** Codec of each handler thread */
+    private final ThreadLocal<PpmCodec> codecs = ThreadLocal.withInitial(PpmCodec::new);
+
+    /** Underlying HTTP server */
+    private final HttpServer server;
+
+    /** Threads handling requests */
+    private final ExecutorService handlers;
+
+    /**
+     * Constructs a server bound to a loopback port. The server does not
+     * accept requests until it is started.
+     *
+     * @param port port to listen on, or 0 for any free port
+     * @param options options giving the default output format, the number of
+     *                requests handled at once and the per-image threads
+     * @throws IOException if the port cannot be bound
+     */
+    public ImageServer(int port, EditorOptions options) throws IOException {
+        if (options == null) throw new IllegalArgumentException("Null options");
+        if (port < 0 || port > 0xFFFF) throw new IllegalArgumentException("Invalid port");
+        this.options = options;
+        this.executor = options.getExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.handlers = Executors.newFixedThreadPool(options.getJobs());
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Warms up the request path and starts accepting requests.
+     */
+    public void start() {
+        warmUp();
+        stats.reset();
+        stats.register();
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits briefly for those in progress.
+     */
+    public void stop() {
+        server.stop(1);
+        handlers.shutdown();
+        try {
+            handlers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the timings and counters of the requests served so far.
+     *
+     * @return statistics shared by every request
+     */
+    public ConversionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the port the server is bound to.
+     *
+     * @return local port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the operations named by a request path.
+     *
+     * @param path request path, such as /greyScale/highContrast
+     * @return the fused operations, or null if the path is empty or names an
+     *         unknown operation
+     */
+    static PixelOperation operationForPath(String path) {
+        List<PixelOperation> chain = new ArrayList<>();
+        for (String name : path.split("/")) {
+            if (name.isEmpty()) continue;
+            switch (name) {
+                case "invert":
+                    chain.add(PointOperation.INVERT);
+                    break;
+                case "highContrast":
+                    chain.add(PointOperation.HIGH_CONTRAST);
+                    break;
+                case "greyScale":
+                    chain.add(PixelOperation.GREY_SCALE);
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return chain.isEmpty() ? null : OperationChain.of(chain.toArray(new PixelOperation[0]));
+    }
+
+    /**
+     * Handles one request.
+     *
+     * @param exchange request and response
+     * @throws IOException if the request cannot be read or the response written
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if ("GET".equals(exchange.getRequestMethod()) && "/stats".equals(path)) {
+                sendText(exchange, 200, stats.toString());
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Send a PPM file with POST");
+                return;
+            }
+            PixelOperation operation = operations.get(path);
+            if (operation == null) {
+                operation = operationForPath(path);
+                if (operation != null && operations.size() < MAX_CACHED_PATHS) {
+                    PixelOperation previous = operations.putIfAbsent(path, operation);
+                    operation = previous == null ? operation : previous;
+                }
+            }
+            if (operation == null) {
+                sendText(exchange, 404, "Unknown operation; use invert, highContrast or greyScale");
+                return;
+            }
+            boolean binaryOutput = options.isBinaryOutput();
+            String query = exchange.getRequestURI().getQuery();
+            if ("format=P3".equals(query)) {
+                binaryOutput = false;
+            } else if ("format=P6".equals(query)) {
+                binaryOutput = true;
+            } else if (query != null) {
+                sendText(exchange, 400, "Invalid query; use format=P3 or format=P6");
+                return;
+            }
+
+            // Every sample takes at least one byte of the body, so a header cannot claim more than it sends
+            long maxSamples = options.getMaxPixels() * 3;
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null) {
+                try {
+                    maxSamples = Math.min(maxSamples, Long.parseLong(length.trim()));
+                } catch (NumberFormatException e) {
+                    sendText(exchange, 400, "Invalid Content-Length");
+                    return;
+                }
+            }
+
+            long allocated = ConversionStats.threadAllocatedBytes();
+            PixelBuffer image;
+            ConversionStats.Timer timer = stats.start(ConversionStats.Stage.READ);
+            CountingInputStream body = new CountingInputStream(exchange.getRequestBody());
+            try (body) {
+                image = codecs.get().read(body, pool, Math.max(0, maxSamples));
+            }
+            if (image == null) {
+                sendText(exchange, 400, "Invalid input file, or more than " + options.getMaxPixels() + " pixels");
+                return;
+            }
+            long pixelCount = (long) image.getWidth() * image.getHeight();
+            timer.stop(body.count, pixelCount);
+            try {
+                timer = stats.start(ConversionStats.Stage.PROCESS);
+                executor.execute(image, operation);
+                timer.stop(0, pixelCount);
+
+                timer = stats.start(ConversionStats.Stage.WRITE);
+                exchange.getResponseHeaders().set("Content-Type", "image/x-portable-pixmap");
+                exchange.sendResponseHeaders(200, 0);
+                CountingOutputStream response = new CountingOutputStream(exchange.getResponseBody());
+                try (response) {
+                    codecs.get().write(response, image, binaryOutput);
+                }
+                timer.stop(response.count, pixelCount);
+                stats.recordConversion(body.count, response.count, pixelCount);
+            } finally {
+                pool.release(image);
+                stats.recordAllocation(ConversionStats.threadAllocatedBytes() - allocated);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends a plain-text response.
+     *
+     * @param exchange request and response
+     * @param status HTTP status code
+     * @param message text for the client
+     * @throws IOException if the response cannot be written
+     */
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] text = (message + "\n").getBytes(StandardCharsets.US_ASCII);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+        exchange.sendResponseHeaders(status, text.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(text);
+        }
+    }
+
+    /**
+     * Runs a small image through the parse, operation and write path of every
+     * operation in both formats, so that the first real requests already run
+     * compiled code.
+     */
+    private void warmUp() {
+        PixelBuffer sample = new PixelBuffer(64, 64);
+        for (int i = 0; i < sample.getData().length; i++) {
+            sample.getData()[i] = (byte) (i * 31);
+        }
+        PixelOperation[] operations = {PointOperation.INVERT, PointOperation.HIGH_CONTRAST,
+                                       PixelOperation.GREY_SCALE};
+        try {
+            for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                codecs.get().write(encoded, sample, i % 2 == 0);
+                PixelBuffer image = codecs.get().read(new ByteArrayInputStream(encoded.toByteArray()), pool);
+                executor.execute(image, operations[i % operations.length]);
+                pool.release(image);
+            }
+        } catch (IOException e) {
+            // In-memory streams do not fail; warming up is best effort anyway
+        }
+    }
+
+    /**
+     * An InputStream that counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /** Number of bytes read */
+        long count;
+
+        /**
+         * Constructs a counting stream.
+         *
+         * @param in stream to read from
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    /**
+     * An OutputStream that counts the bytes written through it.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /** Number of bytes written */
+        long count;
+
+        /**
+         * Constructs a counting stream.
+         *
+         * @param out stream to write to
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
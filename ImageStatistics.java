@@ -0,0 +1,300 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The ImageStatistics class holds the histogram of each channel and of the
+ * luminance of an image, from which the minimum, maximum and mean of each
+ * are derived; the luminance is the Rec. 601 luma of GreyModel.REC601.
+ * Statistics are gathered by a Collector, a PixelOperation that only reads
+ * the samples it is given, so it can run alone or as the last stage of an
+ * OperationChain, in the same pass as the filters before it. Each thread
+ * counts into its own histograms, which are merged when the statistics are
+ * requested, so bands of rows are counted in parallel without contention.
+ *
+ * ImageEditor --histogram prints the summary of the output image; given
+ * just an input file, it prints the summary and every histogram of that
+ * file and writes nothing.
+ *
+ * @author Moksh Thakore
+ */
+public class ImageStatistics {
+
+    /** Index of the red channel */
+    public static final int RED = 0;
+
+    /** Index of the green channel */
+    public static final int GREEN = 1;
+
+    /** Index of the blue channel */
+    public static final int BLUE = 2;
+
+    /** Index of the luminance in the histograms */
+    public static final int LUMINANCE = 3;
+
+    /** Names of the channels in the report */
+    private static final String[] NAMES = {"Red", "Green", "Blue", "Luminance"};
+
+    /** Counts of each value for red, green, blue and luminance, 256 apiece */
+    private final long[] histograms;
+
+    /** Number of pixels counted */
+    private final long pixels;
+
+    /**
+     * Constructs statistics from merged histograms.
+     *
+     * @param histograms 4 * 256 counts, indexed by channel * 256 + value
+     * @param pixels number of pixels counted
+     */
+    private ImageStatistics(long[] histograms, long pixels) {
+        this.histograms = histograms;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Computes the statistics of an image in one pass over its samples.
+     *
+     * @param image image to measure
+     * @param executor executor for the pass
+     * @return the statistics
+     */
+    public static ImageStatistics of(PixelBuffer image, RowExecutor executor) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+        Collector collector = new Collector();
+        executor.execute(image, collector);
+        return collector.getStatistics();
+    }
+
+    /**
+     * Returns the number of pixels counted.
+     *
+     * @return pixel count
+     */
+    public long getPixelCount() {
+        return pixels;
+    }
+
+    /**
+     * Returns the histogram of a channel.
+     *
+     * @param channel RED, GREEN, BLUE or LUMINANCE
+     * @return 256 counts indexed by value
+     */
+    public long[] getHistogram(int channel) {
+        checkChannel(channel);
+        long[] histogram = new long[256];
+        System.arraycopy(histograms, channel * 256, histogram, 0, 256);
+        return histogram;
+    }
+
+    /**
+     * Returns the smallest value of a channel.
+     *
+     * @param channel RED, GREEN, BLUE or LUMINANCE
+     * @return minimum value, or 0 for an empty image
+     */
+    public int getMin(int channel) {
+        checkChannel(channel);
+        for (int value = 0; value < 256; value++) {
+            if (histograms[channel * 256 + value] > 0) return value;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the largest value of a channel.
+     *
+     * @param channel RED, GREEN, BLUE or LUMINANCE
+     * @return maximum value, or 0 for an empty image
+     */
+    public int getMax(int channel) {
+        checkChannel(channel);
+        for (int value = 255; value >= 0; value--) {
+            if (histograms[channel * 256 + value] > 0) return value;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the mean value of a channel.
+     *
+     * @param channel RED, GREEN, BLUE or LUMINANCE
+     * @return mean value, or 0 for an empty image
+     */
+    public double getMean(int channel) {
+        checkChannel(channel);
+        if (pixels == 0) return 0;
+        long sum = 0;
+        for (int value = 0; value < 256; value++) {
+            sum += value * histograms[channel * 256 + value];
+        }
+        return (double) sum / pixels;
+    }
+
+    /**
+     * Returns the histogram of every sample, whatever its channel, which is
+     * what a PointOperation sees.
+     *
+     * @return 256 counts indexed by value
+     */
+    public long[] getSampleHistogram() {
+        long[] histogram = new long[256];
+        for (int value = 0; value < 256; value++) {
+            histogram[value] = histograms[RED * 256 + value] + histograms[GREEN * 256 + value]
+                               + histograms[BLUE * 256 + value];
+        }
+        return histogram;
+    }
+
+    /**
+     * Computes the Otsu threshold of the samples: the value that splits them
+     * into two classes with the largest variance between the classes.
+     *
+     * @return smallest value of the upper class, from 1 to 255, or 128 if
+     *         every sample has the same value
+     */
+    public int getOtsuThreshold() {
+        long[] histogram = getSampleHistogram();
+        long total = 0;
+        double sum = 0;
+        for (int value = 0; value < 256; value++) {
+            total += histogram[value];
+            sum += (double) value * histogram[value];
+        }
+
+        long lowerCount = 0;
+        double lowerSum = 0;
+        double bestVariance = 0;
+        int best = -1;
+        for (int value = 0; value < 255; value++) {
+            lowerCount += histogram[value];
+            lowerSum += (double) value * histogram[value];
+            long upperCount = total - lowerCount;
+            if (lowerCount == 0 || upperCount == 0) continue;
+            double difference = lowerSum / lowerCount - (sum - lowerSum) / upperCount;
+            double variance = (double) lowerCount * upperCount * difference * difference;
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                best = value;
+            }
+        }
+        return best < 0 ? 128 : best + 1;
+    }
+
+    /**
+     * Finds the value below which a fraction of the samples lie.
+     *
+     * @param fraction fraction of the samples, from 0 to 1
+     * @return smallest value v such that more than fraction of the samples
+     *         are at most v, or 255 if there are no samples
+     */
+    public int getSamplePercentile(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) throw new IllegalArgumentException("Invalid fraction");
+        long[] histogram = getSampleHistogram();
+        double limit = fraction * pixels * 3;
+        long count = 0;
+        for (int value = 0; value < 256; value++) {
+            count += histogram[value];
+            if (count > limit) return value;
+        }
+        return 255;
+    }
+
+    /**
+     * Checks a channel index.
+     *
+     * @param channel index to check
+     */
+    private static void checkChannel(int channel) {
+        if (channel < RED || channel > LUMINANCE) throw new IllegalArgumentException("Invalid channel");
+    }
+
+    /**
+     * Returns a report of the pixel count and the range and mean of every channel.
+     *
+     * @return multi-line report
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(pixels).append(" pixels").append(System.lineSeparator());
+        report.append(String.format("%-10s %5s %5s %8s", "Channel", "Min", "Max", "Mean"));
+        for (int channel = RED; channel <= LUMINANCE; channel++) {
+            report.append(System.lineSeparator());
+            report.append(String.format("%-10s %5d %5d %8.2f", NAMES[channel], getMin(channel), getMax(channel),
+                                        getMean(channel)));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Returns the 256-bin histograms of every channel as a table with one
+     * line per value.
+     *
+     * @return multi-line table of the value and the red, green, blue and luminance counts
+     */
+    public String histogramTable() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%5s %12s %12s %12s %12s", "Value", NAMES[RED], NAMES[GREEN], NAMES[BLUE],
+                                   NAMES[LUMINANCE]));
+        for (int value = 0; value < 256; value++) {
+            table.append(System.lineSeparator());
+            table.append(String.format("%5d %12d %12d %12d %12d", value, histograms[RED * 256 + value],
+                                       histograms[GREEN * 256 + value], histograms[BLUE * 256 + value],
+                                       histograms[LUMINANCE * 256 + value]));
+        }
+        return table.toString();
+    }
+
+    /**
+     * A PixelOperation that counts the samples it is given without changing
+     * them. A collector is safe for use by many threads; it gathers the
+     * statistics of every sample passed to it until getStatistics is called.
+     */
+    public static class Collector implements PixelOperation {
+
+        /** Histograms of every thread that has counted samples */
+        private final List<long[]> counts = new CopyOnWriteArrayList<>();
+
+        /** Histograms of the current thread, with the pixel count in the last entry */
+        private final ThreadLocal<long[]> local = ThreadLocal.withInitial(() -> {
+            long[] histograms = new long[4 * 256 + 1];
+            counts.add(histograms);
+            return histograms;
+        });
+
+        @Override
+        public void apply(byte[] data, int offset, int length) {
+            long[] histograms = local.get();
+            for (int i = offset; i < offset + length; i += 3) {
+                int red = data[i] & 0xFF;
+                int green = data[i + 1] & 0xFF;
+                int blue = data[i + 2] & 0xFF;
+                histograms[red]++;
+                histograms[256 + green]++;
+                histograms[512 + blue]++;
+                histograms[768 + GreyModel.REC601.luma(red, green, blue)]++;
+            }
+            histograms[4 * 256] += length / 3;
+        }
+
+        /**
+         * Merges the histograms of every thread. It must not be called while
+         * samples are still being counted.
+         *
+         * @return statistics of the samples counted so far
+         */
+        public ImageStatistics getStatistics() {
+            long[] merged = new long[4 * 256];
+            long pixels = 0;
+            for (long[] histograms : counts) {
+                for (int i = 0; i < merged.length; i++) {
+                    merged[i] += histograms[i];
+                }
+                pixels += histograms[4 * 256];
+            }
+            return new ImageStatistics(merged, pixels);
+        }
+    }
+}
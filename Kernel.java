@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+/**
+ * The Kernel class holds the weights of a convolution: an odd width by odd
+ * height grid of weights centred on the pixel being computed. A kernel whose
+ * weights are the product of a column vector and a row vector, such as a
+ * box or Gaussian blur, is separable; it is detected when the kernel is built
+ * and applied as two one-dimensional passes, which costs width + height
+ * multiplications per sample instead of width * height.
+ *
+ * @author Moksh Thakore
+ */
+public final class Kernel {
+
+    /** Largest radius accepted for blur kernels */
+    public static final int MAX_RADIUS = 64;
+
+    /** Sharpens edges by subtracting the four neighbours from five times the centre */
+    public static final Kernel SHARPEN = new Kernel(3, 3, new float[] {
+         0, -1,  0,
+        -1,  5, -1,
+         0, -1,  0
+    });
+
+    /** Horizontal gradient of the Sobel edge detector */
+    public static final Kernel SOBEL_X = new Kernel(3, 3, new float[] {
+        -1, 0, 1,
+        -2, 0, 2,
+        -1, 0, 1
+    });
+
+    /** Vertical gradient of the Sobel edge detector */
+    public static final Kernel SOBEL_Y = new Kernel(3, 3, new float[] {
+        -1, -2, -1,
+         0,  0,  0,
+         1,  2,  1
+    });
+
+    /** Relative tolerance when testing whether a kernel is separable */
+    private static final float SEPARABLE_TOLERANCE = 1e-5f;
+
+    /** Number of columns of weights */
+    private final int width;
+
+    /** Number of rows of weights */
+    private final int height;
+
+    /** Weights in row-major order */
+    private final float[] weights;
+
+    /** Weights of the horizontal pass, or null if the kernel is not separable */
+    private final float[] horizontal;
+
+    /** Weights of the vertical pass, or null if the kernel is not separable */
+    private final float[] vertical;
+
+    /**
+     * Constructs a kernel.
+     *
+     * @param width number of columns, odd
+     * @param height number of rows, odd
+     * @param weights weights in row-major order
+     */
+    public Kernel(int width, int height, float[] weights) {
+        if (weights == null) throw new IllegalArgumentException("Null array");
+        if (width <= 0 || height <= 0 || width % 2 == 0 || height % 2 == 0
+            || weights.length != width * height) {
+            throw new IllegalArgumentException("Invalid kernel");
+        }
+        this.width = width;
+        this.height = height;
+        this.weights = weights.clone();
+
+        // A kernel is separable if it has rank 1: every row is a multiple of the row through its largest weight
+        int pivot = 0;
+        for (int i = 1; i < weights.length; i++) {
+            if (Math.abs(weights[i]) > Math.abs(weights[pivot])) pivot = i;
+        }
+        int pivotRow = pivot / width;
+        int pivotColumn = pivot % width;
+        float scale = weights[pivot];
+        boolean separable = scale != 0;
+        for (int row = 0; row < height && separable; row++) {
+            for (int column = 0; column < width && separable; column++) {
+                float expected = weights[row * width + pivotColumn] * weights[pivotRow * width + column] / scale;
+                separable = Math.abs(weights[row * width + column] - expected)
+                            <= SEPARABLE_TOLERANCE * Math.abs(scale);
+            }
+        }
+        if (separable && (width > 1 || height > 1)) {
+            horizontal = new float[width];
+            vertical = new float[height];
+            for (int column = 0; column < width; column++) {
+                horizontal[column] = weights[pivotRow * width + column] / scale;
+            }
+            for (int row = 0; row < height; row++) {
+                vertical[row] = weights[row * width + pivotColumn];
+            }
+        } else {
+            horizontal = null;
+            vertical = null;
+        }
+    }
+
+    /**
+     * Creates the separable kernel that is the product of a vertical and a
+     * horizontal vector.
+     *
+     * @param horizontal weights of the horizontal pass, odd length
+     * @param vertical weights of the vertical pass, odd length
+     * @return the kernel
+     */
+    public static Kernel separable(float[] horizontal, float[] vertical) {
+        if (horizontal == null || vertical == null) throw new IllegalArgumentException("Null array");
+        float[] weights = new float[horizontal.length * vertical.length];
+        for (int row = 0; row < vertical.length; row++) {
+            for (int column = 0; column < horizontal.length; column++) {
+                weights[row * horizontal.length + column] = vertical[row] * horizontal[column];
+            }
+        }
+        return new Kernel(horizontal.length, vertical.length, weights);
+    }
+
+    /**
+     * Creates a box blur, which averages the pixels within a square.
+     *
+     * @param radius distance from the centre to the edge of the square, 1 to MAX_RADIUS
+     * @return normalized box kernel
+     */
+    public static Kernel box(int radius) {
+        checkRadius(radius);
+        float[] weights = new float[2 * radius + 1];
+        Arrays.fill(weights, 1f / weights.length);
+        return separable(weights, weights);
+    }
+
+    /**
+     * Creates a Gaussian blur with a standard deviation of half the radius.
+     *
+     * @param radius distance from the centre to the edge of the kernel, 1 to MAX_RADIUS
+     * @return normalized Gaussian kernel
+     */
+    public static Kernel gaussian(int radius) {
+        checkRadius(radius);
+        double sigma = Math.max(0.5, radius / 2.0);
+        float[] weights = new float[2 * radius + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            sum += Math.exp(-i * i / (2 * sigma * sigma));
+        }
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = (float) (Math.exp(-i * i / (2 * sigma * sigma)) / sum);
+        }
+        return separable(weights, weights);
+    }
+
+    /**
+     * Checks the radius of a blur kernel.
+     *
+     * @param radius radius to check
+     */
+    private static void checkRadius(int radius) {
+        if (radius < 1 || radius > MAX_RADIUS) throw new IllegalArgumentException("Invalid radius");
+    }
+
+    /**
+     * Returns the number of columns of weights.
+     *
+     * @return kernel width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows of weights.
+     *
+     * @return kernel height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns one weight.
+     *
+     * @param row row of the weight
+     * @param column column of the weight
+     * @return the weight
+     */
+    public float getWeight(int row, int column) {
+        return weights[row * width + column];
+    }
+
+    /**
+     * Returns whether the kernel is applied as two one-dimensional passes.
+     *
+     * @return true if the kernel is separable
+     */
+    public boolean isSeparable() {
+        return horizontal != null;
+    }
+
+    /**
+     * Returns the weights in row-major order.
+     *
+     * @return the weights, which must not be modified
+     */
+    float[] weights() {
+        return weights;
+    }
+
+    /**
+     * Returns the weights of the horizontal pass.
+     *
+     * @return the weights, which must not be modified, or null if not separable
+     */
+    float[] horizontal() {
+        return horizontal;
+    }
+
+    /**
+     * Returns the weights of the vertical pass.
+     *
+     * @return the weights, which must not be modified, or null if not separable
+     */
+    float[] vertical() {
+        return vertical;
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedImageEditor class applies a PixelOperation to a binary (P6) PPM
+ * file through memory-mapped windows of the file, so that no Java array of
+ * the whole image is ever created. Samples are staged through one small
+ * scratch array, which lets images far larger than the heap be processed.
+ * A file can also be transformed in place, as --mmap does when the output
+ * file is the input file.
+ *
+ * @author Moksh Thakore
+ */
+public class MappedImageEditor {
+
+    /** Number of raster bytes mapped at once, a multiple of 3 */
+    static final long WINDOW_SIZE = 3L << 26;
+
+    /** Number of raster bytes transformed at once, a multiple of 3 */
+    static final int CHUNK_SIZE = 3 << 18;
+
+    /**
+     * Reads and validates the header of a PPM file through a channel.
+     *
+     * @param channel channel positioned anywhere in the file
+     * @return the header, or null if the header is invalid
+     * @throws IOException if the file cannot be read
+     */
+    public static PpmHeader readHeader(FileChannel channel) throws IOException {
+        if (channel == null) throw new IllegalArgumentException("Null file");
+        channel.position(0);
+        return PpmHeader.read(new PpmTokenizer(Channels.newInputStream(channel)));
+    }
+
+    /**
+     * Applies an operation to a P6 file, writing the result to a new P6 file.
+     * Windows of the input are mapped read-only and the matching windows of
+     * the output are mapped read-write.
+     *
+     * @param input path of the P6 input file
+     * @param output path of the output file, created or replaced
+     * @param operation operation to apply
+     * @return true on success, false if the input is not a complete P6 file,
+     *         in which case the output is not touched
+     * @throws IOException if either file cannot be accessed
+     */
+    public static boolean transform(Path input, Path output, PixelOperation operation)
+            throws IOException {
+        if (input == null || output == null) throw new IllegalArgumentException("Null file");
+        if (operation == null) throw new IllegalArgumentException("Null operation");
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            PpmHeader header = readHeader(in);
+            if (!isCompleteBinary(header, in)) return false;
+
+            byte[] headerBytes = ("P6\n" + header.getWidth() + " " + header.getHeight() + "\n255\n")
+                                 .getBytes(StandardCharsets.US_ASCII);
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+                out.write(ByteBuffer.wrap(headerBytes), 0);
+                long samples = header.getSampleCount();
+                byte[] scratch = new byte[(int) Math.min(CHUNK_SIZE, samples)];
+                for (long done = 0; done < samples; done += WINDOW_SIZE) {
+                    long size = Math.min(WINDOW_SIZE, samples - done);
+                    MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY,
+                                                     header.getDataOffset() + done, size);
+                    MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE,
+                                                      headerBytes.length + done, size);
+                    transformWindow(source, target, scratch, operation);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies an operation to a P6 file in place, through read-write mappings
+     * of its raster.
+     *
+     * @param file path of the P6 file
+     * @param operation operation to apply
+     * @return true on success, false if the file is not a complete P6 file
+     * @throws IOException if the file cannot be accessed
+     */
+    public static boolean transformInPlace(Path file, PixelOperation operation) throws IOException {
+        if (file == null) throw new IllegalArgumentException("Null file");
+        if (operation == null) throw new IllegalArgumentException("Null operation");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            PpmHeader header = readHeader(channel);
+            if (!isCompleteBinary(header, channel)) return false;
+
+            long samples = header.getSampleCount();
+            byte[] scratch = new byte[(int) Math.min(CHUNK_SIZE, samples)];
+            for (long done = 0; done < samples; done += WINDOW_SIZE) {
+                long size = Math.min(WINDOW_SIZE, samples - done);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                      header.getDataOffset() + done, size);
+                transformWindow(window, window.duplicate(), scratch, operation);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a header describes a P6 file whose raster fits in the file.
+     *
+     * @param header header of the file, or null if it was invalid
+     * @param channel channel of the file
+     * @return true if the raster is complete
+     * @throws IOException if the file size cannot be read
+     */
+    private static boolean isCompleteBinary(PpmHeader header, FileChannel channel) throws IOException {
+        return header != null && header.isBinary()
+               && channel.size() - header.getDataOffset() >= header.getSampleCount();
+    }
+
+    /**
+     * Copies the remaining bytes of one window to another, transforming them
+     * a chunk at a time through the scratch array.
+     *
+     * @param source window to read
+     * @param target window to write, with at least as many remaining bytes
+     * @param scratch staging array whose length is a multiple of 3
+     * @param operation operation to apply
+     */
+    private static void transformWindow(ByteBuffer source, ByteBuffer target, byte[] scratch,
+                                        PixelOperation operation) {
+        while (source.hasRemaining()) {
+            int length = Math.min(scratch.length, source.remaining());
+            source.get(scratch, 0, length);
+            operation.apply(scratch, 0, length);
+            target.put(scratch, 0, length);
+        }
+    }
+}
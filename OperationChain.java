@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An OperationChain applies an ordered sequence of PixelOperations in a
+ * single traversal of the image. Adjacent PointOperations are composed into
+ * one lookup table when the chain is built. The remaining stages are run
+ * over one small block of samples at a time, so each block is still in the
+ * cache when the next stage reads it.
+ *
+ * @author Moksh Thakore
+ */
+public class OperationChain implements PixelOperation {
+
+    /** Number of samples passed through every stage at once, a multiple of 3 */
+    static final int BLOCK_SIZE = 3 * 1024;
+
+    /** Stages left after composing adjacent point operations */
+    private final PixelOperation[] stages;
+
+    /**
+     * Constructs a chain, composing adjacent point operations.
+     *
+     * @param operations operations in the order they are applied
+     */
+    public OperationChain(List<? extends PixelOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Empty chain");
+        }
+        List<PixelOperation> fused = new ArrayList<>();
+        for (PixelOperation operation : operations) {
+            if (operation == null) throw new IllegalArgumentException("Null operation");
+            int last = fused.size() - 1;
+            if (operation instanceof PointOperation && last >= 0
+                && fused.get(last) instanceof PointOperation) {
+                fused.set(last, ((PointOperation) fused.get(last)).then((PointOperation) operation));
+            } else {
+                fused.add(operation);
+            }
+        }
+        this.stages = fused.toArray(new PixelOperation[0]);
+    }
+
+    /**
+     * Creates the cheapest operation equivalent to applying the given
+     * operations in order: a single operation if they fuse into one, and a
+     * chain otherwise.
+     *
+     * @param operations operations in the order they are applied
+     * @return equivalent operation
+     */
+    public static PixelOperation of(PixelOperation... operations) {
+        OperationChain chain = new OperationChain(Arrays.asList(operations));
+        return chain.stages.length == 1 ? chain.stages[0] : chain;
+    }
+
+    /**
+     * Returns the number of stages left after composing point operations.
+     *
+     * @return number of passes over each block
+     */
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    @Override
+    public void apply(byte[] data, int offset, int length) {
+        if (stages.length == 1) {
+            stages[0].apply(data, offset, length);
+            return;
+        }
+        int end = offset + length;
+        for (int start = offset; start < end; start += BLOCK_SIZE) {
+            int blockLength = Math.min(BLOCK_SIZE, end - start);
+            for (PixelOperation stage : stages) {
+                stage.apply(data, start, blockLength);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The ParallelPpmDecoder class parses a large ASCII (P3) file on several
+ * threads. The raster is memory-mapped and split into chunks; a token
+ * belongs to the chunk in which it starts. A first parallel pass counts and
+ * validates the tokens of every chunk, the counts give the index of the
+ * first sample of each chunk, and a second parallel pass decodes every chunk
+ * straight into its place in the image. The result and the validation are
+ * the same as for the sequential reader: the file must hold width * height
+ * * 3 integer samples from 0 to 255, and anything after them is ignored.
+ *
+ * Rasters containing comments, or tokens too long to end within a chunk's
+ * overlap, are read by the sequential reader instead, as are binary (P6)
+ * files, which gain nothing from being split, and images below the
+ * executor's threshold. A PXB file is decoded by PxbFormat.
+ *
+ * @author Moksh Thakore
+ */
+public class ParallelPpmDecoder {
+
+    /** Smallest chunk worth a task */
+    static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    /** Largest chunk, which bounds the size of each mapping */
+    static final int MAX_CHUNK_SIZE = 1 << 26;
+
+    /** Bytes mapped past the end of a chunk, so its last token can be finished */
+    static final int OVERLAP = 1 << 12;
+
+    /**
+     * Reads and validates a PPM file into a PixelBuffer, decoding an ASCII
+     * raster on the threads of the executor.
+     *
+     * @param file path of the PPM file
+     * @param executor executor whose threads decode the chunks
+     * @return packed image, or null if the file is invalid
+     * @throws IOException if the file cannot be read
+     */
+    public static PixelBuffer read(Path file, RowExecutor executor) throws IOException {
+        if (file == null) throw new IllegalArgumentException("Null file");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            PpmHeader header = MappedImageEditor.readHeader(channel);
+            if (header == null) {
+                // Not a PPM file, but it may be a PXB container
+                channel.position(0);
+                return PxbFormat.read(Channels.newInputStream(channel), executor);
+            }
+            if (header.getSampleCount() > Integer.MAX_VALUE - 8) return null;
+            long pixels = (long) header.getWidth() * header.getHeight();
+            if (header.isBinary() || executor.getParallelism() == 1 || pixels < executor.getThreshold()) {
+                return readSequentially(channel);
+            }
+
+            long start = header.getDataOffset();
+            long end = channel.size();
+            long chunkSize = Math.max(MIN_CHUNK_SIZE,
+                                      Math.min(MAX_CHUNK_SIZE, (end - start) / (executor.getParallelism() * 4L) + 1));
+            Chunk[] chunks = new Chunk[(int) Math.max(1, (end - start + chunkSize - 1) / chunkSize)];
+            for (int i = 0; i < chunks.length; i++) {
+                long from = start + i * chunkSize;
+                chunks[i] = new Chunk(channel, start, from, Math.min(end, from + chunkSize), end);
+            }
+
+            // Count and validate the tokens of every chunk
+            int samples = (int) header.getSampleCount();
+            executor.forEachTask(chunks.length, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    chunks[i].scan(null, 0, Integer.MAX_VALUE);
+                }
+            });
+
+            // Find where each chunk's samples go, and whether the samples needed are all valid
+            int[] offsets = new int[chunks.length];
+            int total = 0;
+            int used = 0;
+            for (int i = 0; i < chunks.length && total < samples; i++) {
+                if (chunks[i].fallback) return readSequentially(channel);
+                offsets[i] = total;
+                total += chunks[i].count;
+                used = i + 1;
+                if (chunks[i].invalid && total < samples) return null;
+            }
+            if (total < samples) return null;
+
+            PixelBuffer image = new PixelBuffer(header.getWidth(), header.getHeight());
+            byte[] data = image.getData();
+            executor.forEachTask(used, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    chunks[i].scan(data, offsets[i], samples - offsets[i]);
+                }
+            });
+            return image;
+        }
+    }
+
+    /**
+     * Reads a file from the start with the sequential reader.
+     *
+     * @param channel channel of the file
+     * @return packed image, or null if the file is invalid
+     * @throws IOException if the file cannot be read
+     */
+    private static PixelBuffer readSequentially(FileChannel channel) throws IOException {
+        channel.position(0);
+        return ImageEditor.readPixelBuffer(Channels.newInputStream(channel));
+    }
+
+    /**
+     * A range of the raster and the tokens that start in it.
+     */
+    private static final class Chunk {
+
+        /** Mapping of the chunk, the byte before it and the overlap after it */
+        private final MappedByteBuffer bytes;
+
+        /** Index in bytes of the first byte of the chunk */
+        private final int first;
+
+        /** Index in bytes just past the last byte of the chunk */
+        private final int last;
+
+        /** Whether the mapping ends at the end of the file */
+        private final boolean endOfFile;
+
+        /** Number of valid tokens before the first invalid one */
+        int count;
+
+        /** Whether an invalid token follows the counted ones */
+        boolean invalid;
+
+        /** Whether the chunk must be left to the sequential reader */
+        boolean fallback;
+
+        /**
+         * Maps a chunk.
+         *
+         * @param channel channel of the file
+         * @param rasterStart offset of the raster in the file
+         * @param from offset of the chunk in the file
+         * @param to offset just past the chunk
+         * @param size size of the file
+         * @throws IOException if the file cannot be mapped
+         */
+        Chunk(FileChannel channel, long rasterStart, long from, long to, long size) throws IOException {
+            long mapStart = Math.max(rasterStart, from - 1);
+            long mapEnd = Math.min(size, to + OVERLAP);
+            this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+            this.first = (int) (from - mapStart);
+            this.last = (int) (to - mapStart);
+            this.endOfFile = mapEnd == size;
+        }
+
+        /**
+         * Scans the tokens that start in the chunk, counting them until the
+         * first invalid one and optionally storing them.
+         *
+         * @param out receives the samples, or null to only count them
+         * @param offset index in out of the first sample
+         * @param limit largest number of samples to scan
+         */
+        void scan(byte[] out, int offset, int limit) {
+            MappedByteBuffer bytes = this.bytes;
+            int limitIndex = bytes.limit();
+            int p = first;
+
+            // A token running into the chunk belongs to the chunk before
+            if (p > 0 && !PpmTokenizer.isWhitespace(bytes.get(p - 1))) {
+                while (p < limitIndex && !PpmTokenizer.isWhitespace(bytes.get(p))) p++;
+            }
+
+            int tokens = 0;
+            while (tokens < limit) {
+                while (p < last && PpmTokenizer.isWhitespace(bytes.get(p))) p++;
+                if (p >= last) break;
+
+                int c = bytes.get(p);
+                if (c == '#') {
+                    fallback = true;
+                    return;
+                }
+                boolean negative = c == '-';
+                if (c == '-' || c == '+') p++;
+                int digits = 0;
+                int value = 0;
+                while (p < limitIndex && (c = bytes.get(p)) >= '0' && c <= '9') {
+                    value = Math.min(256, value * 10 + (c - '0'));
+                    digits++;
+                    p++;
+                }
+                if (p == limitIndex && !endOfFile) {
+                    fallback = true;
+                    return;
+                }
+                if (p < limitIndex && bytes.get(p) == '#') {
+                    fallback = true;
+                    return;
+                }
+                if (digits == 0 || value > 255 || (negative && value != 0)
+                    || (p < limitIndex && !PpmTokenizer.isWhitespace(bytes.get(p)))) {
+                    invalid = true;
+                    break;
+                }
+                if (out != null) {
+                    out[offset + tokens] = (byte) value;
+                }
+                tokens++;
+            }
+            count = tokens;
+        }
+    }
+}
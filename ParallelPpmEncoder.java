@@ -0,0 +1,113 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The ParallelPpmEncoder class writes a large image as ASCII (P3) on several
+ * threads. The rows are split into bands; a first parallel pass computes the
+ * encoded length of every band, which gives the offset of each band in the
+ * file, and a second parallel pass formats every band into its own array and
+ * writes it at its offset with a positional FileChannel write. The output is
+ * byte for byte the same as writePPM: one row per line, samples separated by
+ * single spaces.
+ *
+ * Binary (P6) images, which need no formatting, and images below the
+ * executor's threshold are written sequentially.
+ *
+ * @author Moksh Thakore
+ */
+public class ParallelPpmEncoder {
+
+    /** Largest number of samples formatted into one band's array */
+    static final int MAX_BAND_SAMPLES = 1 << 21;
+
+    /**
+     * Writes an image to a file, replacing it, encoding P3 rows on the
+     * threads of the executor.
+     *
+     * @param file path of the output file
+     * @param image packed RGB image
+     * @param binary true to write P6, false to write P3
+     * @param executor executor whose threads format the bands
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, PixelBuffer image, boolean binary, RowExecutor executor)
+            throws IOException {
+        if (file == null) throw new IllegalArgumentException("Null file");
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pixels = (long) image.getWidth() * image.getHeight();
+            if (binary || executor.getParallelism() == 1 || pixels < executor.getThreshold()
+                || image.getHeight() == 1) {
+                OutputStream out = Channels.newOutputStream(channel);
+                PpmWriter.write(out, image, binary);
+                return;
+            }
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            PpmWriter writer = new PpmWriter(header, false);
+            writer.writeHeader(image.getWidth(), image.getHeight());
+            writer.flush();
+            writeFully(channel, header.toByteArray(), header.size(), 0);
+
+            // A few bands per thread, each small enough to format into one array
+            int height = image.getHeight();
+            int bandRows = Math.max(1, Math.min(height / (executor.getParallelism() * 4),
+                                                MAX_BAND_SAMPLES / image.getRowLength()));
+            int bands = (height + bandRows - 1) / bandRows;
+
+            long[] offsets = new long[bands + 1];
+            executor.forEachTask(bands, (from, to) -> {
+                for (int band = from; band < to; band++) {
+                    int fromRow = band * bandRows;
+                    offsets[band + 1] = PpmWriter.textLength(image, fromRow, Math.min(height, fromRow + bandRows));
+                }
+            });
+            offsets[0] = header.size();
+            for (int band = 0; band < bands; band++) {
+                offsets[band + 1] += offsets[band];
+            }
+
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            executor.forEachTask(bands, (from, to) -> {
+                for (int band = from; band < to && failure.get() == null; band++) {
+                    int fromRow = band * bandRows;
+                    byte[] text = new byte[(int) (offsets[band + 1] - offsets[band])];
+                    int length = PpmWriter.encodeText(image, fromRow, Math.min(height, fromRow + bandRows), text, 0);
+                    try {
+                        writeFully(channel, text, length, offsets[band]);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            if (failure.get() != null) throw failure.get();
+        }
+    }
+
+    /**
+     * Writes bytes at a position, repeating the write until all are written.
+     *
+     * @param channel channel of the file
+     * @param bytes bytes to write
+     * @param length number of bytes to write
+     * @param position offset in the file of the first byte
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeFully(FileChannel channel, byte[] bytes, int length, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * The PixelBuffer class stores an RGB image as 8-bit channel samples packed
+ * into a single contiguous byte array. Row r starts at index r * stride and
+ * holds width * 3 samples in red, green, blue order; any bytes between the
+ * end of a row and the start of the next are padding. Samples are stored as
+ * unsigned values, so a sample must be read back with (data[i] &amp; 0xFF).
+ * A buffer can be reshaped to new dimensions, reusing its array when it is
+ * large enough, so one buffer can hold a sequence of images.
+ *
+ * @author Moksh Thakore
+ */
+public class PixelBuffer {
+
+    /** Largest number of samples an image can hold, the longest array every VM allows */
+    public static final int MAX_SAMPLES = Integer.MAX_VALUE - 8;
+
+    /** Number of pixels per row */
+    private int width;
+
+    /** Number of rows */
+    private int height;
+
+    /** Number of bytes from the start of one row to the start of the next */
+    private int stride;
+
+    /** Packed channel samples, possibly longer than the image */
+    private byte[] data;
+
+    /**
+     * Constructs a black image with rows packed without padding.
+     *
+     * @param width number of pixels per row
+     * @param height number of rows
+     */
+    public PixelBuffer(int width, int height) {
+        this(width, height, checkedRowLength(width));
+    }
+
+    /**
+     * Constructs a black image with the given row stride.
+     *
+     * @param width number of pixels per row
+     * @param height number of rows
+     * @param stride number of bytes between the starts of consecutive rows
+     */
+    public PixelBuffer(int width, int height, int stride) {
+        int rowLength = checkedRowLength(width);
+        if (height <= 0 || stride < rowLength) {
+            throw new IllegalArgumentException("Invalid dimensions");
+        }
+        if ((long) stride * height > MAX_SAMPLES) {
+            throw new IllegalArgumentException("Image too large");
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.data = new byte[stride * height];
+    }
+
+    /**
+     * Creates a packed copy of a 2D array of RGB pixel values.
+     *
+     * @param pixels 2D array of RGB pixel values
+     * @return PixelBuffer holding the same samples
+     */
+    public static PixelBuffer fromArray(int[][] pixels) {
+        ImageEditor.validatePixelArray(pixels);
+        PixelBuffer image = new PixelBuffer(pixels[0].length / 3, pixels.length);
+        byte[] data = image.data;
+        for (int i = 0; i < pixels.length; i++) {
+            int[] row = pixels[i];
+            int offset = image.rowOffset(i);
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] < 0 || row[j] > 255) throw new IllegalArgumentException("Invalid value");
+                data[offset + j] = (byte) row[j];
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Creates a 2D array of RGB pixel values holding the samples of this image.
+     *
+     * @return 2D array with one row of width * 3 values per image row
+     */
+    public int[][] toArray() {
+        int[][] pixels = new int[height][width * 3];
+        copyTo(pixels);
+        return pixels;
+    }
+
+    /**
+     * Copies the samples of this image into an existing 2D array of the same
+     * dimensions.
+     *
+     * @param pixels 2D array of RGB pixel values
+     */
+    public void copyTo(int[][] pixels) {
+        ImageEditor.validatePixelArray(pixels);
+        if (pixels.length != height || pixels[0].length != width * 3) {
+            throw new IllegalArgumentException("Dimension mismatch");
+        }
+        for (int i = 0; i < height; i++) {
+            int[] row = pixels[i];
+            int offset = rowOffset(i);
+            for (int j = 0; j < row.length; j++) {
+                row[j] = data[offset + j] & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Changes the dimensions of this image, reusing the backing array when it
+     * is large enough and replacing it with a larger one otherwise. Rows are
+     * packed without padding afterwards. The samples are left unspecified, so
+     * the caller must overwrite every row.
+     *
+     * @param width number of pixels per row
+     * @param height number of rows
+     * @return this image
+     */
+    public PixelBuffer reshape(int width, int height) {
+        int rowLength = checkedRowLength(width);
+        if (height <= 0) throw new IllegalArgumentException("Invalid dimensions");
+        if ((long) rowLength * height > MAX_SAMPLES) {
+            throw new IllegalArgumentException("Image too large");
+        }
+        if (rowLength * height > data.length) {
+            data = new byte[rowLength * height];
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = rowLength;
+        return this;
+    }
+
+    /**
+     * Returns the number of samples the backing array can hold, which bounds
+     * the images this buffer can be reshaped to without allocating.
+     *
+     * @return length of the backing array
+     */
+    public int getCapacity() {
+        return data.length;
+    }
+
+    /**
+     * Returns the number of pixels per row.
+     *
+     * @return image width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return image height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of bytes from the start of one row to the start of the next.
+     *
+     * @return row stride in bytes
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the number of samples in a row, excluding padding.
+     *
+     * @return width * 3
+     */
+    public int getRowLength() {
+        return width * 3;
+    }
+
+    /**
+     * Returns the index of the first sample of a row.
+     *
+     * @param row row index
+     * @return index into getData()
+     */
+    public int rowOffset(int row) {
+        return row * stride;
+    }
+
+    /**
+     * Returns the backing array. Changes to the array are visible in the image.
+     *
+     * @return packed channel samples
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns one channel sample.
+     *
+     * @param row row index
+     * @param index sample index within the row, from 0 to width * 3 - 1
+     * @return sample value from 0 to 255
+     */
+    public int getSample(int row, int index) {
+        return data[rowOffset(row) + index] & 0xFF;
+    }
+
+    /**
+     * Sets one channel sample.
+     *
+     * @param row row index
+     * @param index sample index within the row, from 0 to width * 3 - 1
+     * @param value sample value from 0 to 255
+     */
+    public void setSample(int row, int index, int value) {
+        data[rowOffset(row) + index] = (byte) value;
+    }
+
+    /**
+     * Validates a width and returns the number of samples in a row of that width.
+     *
+     * @param width number of pixels per row
+     * @return width * 3
+     */
+    private static int checkedRowLength(int width) {
+        if (width <= 0 || width > MAX_SAMPLES / 3) {
+            throw new IllegalArgumentException("Invalid dimensions");
+        }
+        return width * 3;
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The PixelBufferPool class keeps released PixelBuffers for reuse by later
+ * images, so a long-running process that handles a stream of images stops
+ * allocating a new raster for each one. An acquired buffer is reshaped to
+ * the requested dimensions, which only allocates when they need more room
+ * than the buffer has held before. The most recently released buffer is
+ * handed out first, while it is still in the cache. The pool is safe for use
+ * by many threads and keeps at most a fixed number of idle buffers holding
+ * at most a fixed number of bytes between them; a buffer that would take
+ * the pool over either limit is left to the garbage collector.
+ *
+ * @author Moksh Thakore
+ */
+public class PixelBufferPool {
+
+    /** Default number of idle buffers kept */
+    public static final int DEFAULT_MAX_IDLE = 8;
+
+    /** Default number of bytes kept in idle buffers */
+    public static final long DEFAULT_MAX_IDLE_BYTES = 256L << 20;
+
+    /** Idle buffers, most recently released first */
+    private final ConcurrentLinkedDeque<PixelBuffer> idle = new ConcurrentLinkedDeque<>();
+
+    /** Number of buffers in the deque, including ones being added */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /** Number of bytes in the buffers in the deque, including ones being added */
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    /** Maximum number of idle buffers kept */
+    private final int maxIdle;
+
+    /** Maximum number of bytes kept in idle buffers */
+    private final long maxIdleBytes;
+
+    /**
+     * Constructs a pool keeping up to DEFAULT_MAX_IDLE idle buffers of
+     * DEFAULT_MAX_IDLE_BYTES bytes in all.
+     */
+    public PixelBufferPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * Constructs a pool keeping up to DEFAULT_MAX_IDLE_BYTES bytes in idle buffers.
+     *
+     * @param maxIdle maximum number of idle buffers kept
+     */
+    public PixelBufferPool(int maxIdle) {
+        this(maxIdle, DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    /**
+     * Constructs a pool.
+     *
+     * @param maxIdle maximum number of idle buffers kept
+     * @param maxIdleBytes maximum number of bytes kept in idle buffers
+     */
+    public PixelBufferPool(int maxIdle, long maxIdleBytes) {
+        if (maxIdle < 0 || maxIdleBytes < 0) throw new IllegalArgumentException("Invalid pool size");
+        this.maxIdle = maxIdle;
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * Returns an idle buffer reshaped to the given size, or a new buffer if
+     * none is idle. The contents of a reused buffer are unspecified.
+     *
+     * @param width number of pixels per row
+     * @param height number of rows
+     * @return buffer of the given size
+     */
+    public PixelBuffer acquire(int width, int height) {
+        PixelBuffer image = idle.pollFirst();
+        if (image == null) {
+            return new PixelBuffer(width, height);
+        }
+        idleCount.decrementAndGet();
+        idleBytes.addAndGet(-image.getData().length);
+        return image.reshape(width, height);
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use it afterwards.
+     *
+     * @param image buffer to return, or null
+     */
+    public void release(PixelBuffer image) {
+        if (image == null) return;
+        long bytes = image.getData().length;
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        if (idleBytes.addAndGet(bytes) > maxIdleBytes) {
+            idleBytes.addAndGet(-bytes);
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offerFirst(image);
+    }
+}
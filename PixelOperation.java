@@ -0,0 +1,42 @@
+/**
+ * A PixelOperation transforms a run of packed RGB samples in place. Each
+ * pixel is transformed independently of its neighbours, so an image can be
+ * processed in any split of whole pixels, such as one row or one band of
+ * rows at a time.
+ *
+ * @author Moksh Thakore
+ */
+public interface PixelOperation {
+
+    /** Replaces each sample with 255 minus the sample */
+    PixelOperation INVERT = PointOperation.INVERT;
+
+    /** Replaces each sample below 128 with 0 and every other sample with 255 */
+    PixelOperation HIGH_CONTRAST = PointOperation.HIGH_CONTRAST;
+
+    /** Replaces the samples of each pixel with their integer average */
+    PixelOperation GREY_SCALE = VectorSupport.kernel("greyScale", PixelOperation::greyScale);
+
+    /**
+     * Transforms samples data[offset] through data[offset + length - 1].
+     *
+     * @param data packed RGB samples
+     * @param offset index of the first sample, which starts a pixel
+     * @param length number of samples, a multiple of 3
+     */
+    void apply(byte[] data, int offset, int length);
+
+    /**
+     * Converts a run of pixels to grayscale.
+     *
+     * @param data packed RGB samples
+     * @param offset index of the first sample
+     * @param length number of samples, a multiple of 3
+     */
+    static void greyScale(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i += 3) {
+            int average = ((data[i] & 0xFF) + (data[i + 1] & 0xFF) + (data[i + 2] & 0xFF)) / 3;
+            data[i] = data[i + 1] = data[i + 2] = (byte) average;
+        }
+    }
+}
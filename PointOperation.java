@@ -0,0 +1,175 @@
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A PointOperation maps every channel sample through the same 256-entry
+ * lookup table, independently of the other channels of the pixel. The table
+ * is computed once when the operation is created, so even operations such as
+ * gamma correction cost a single table lookup per sample. Two point
+ * operations compose into a single table, so a sequence of them costs the
+ * same as one.
+ *
+ * @author Moksh Thakore
+ */
+public class PointOperation implements PixelOperation {
+
+    /** Replaces each sample with 255 minus the sample */
+    public static final PointOperation INVERT =
+        of(value -> 255 - value).withKernel(VectorSupport.kernel("invert", null));
+
+    /** Replaces each sample below 128 with 0 and every other sample with 255 */
+    public static final PointOperation HIGH_CONTRAST =
+        threshold(128).withKernel(VectorSupport.kernel("highContrast", null));
+
+    /** Lookup table indexed by the unsigned sample value */
+    private final byte[] table;
+
+    /** Vectorized kernel equivalent to the table, or null to use the table */
+    private final PixelOperation kernel;
+
+    /**
+     * Constructs a point operation from a lookup table.
+     *
+     * @param table 256 output samples indexed by input sample
+     * @param kernel vectorized kernel equivalent to the table, or null
+     */
+    private PointOperation(byte[] table, PixelOperation kernel) {
+        this.table = table;
+        this.kernel = kernel;
+    }
+
+    /**
+     * Returns a copy of this operation that runs a vectorized kernel
+     * computing the same function as the table.
+     *
+     * @param kernel equivalent kernel, or null to keep using the table
+     * @return operation using the kernel
+     */
+    private PointOperation withKernel(PixelOperation kernel) {
+        return kernel == null ? this : new PointOperation(table, kernel);
+    }
+
+    /**
+     * Creates a point operation by evaluating a function for every sample value.
+     *
+     * @param function function from a sample value from 0 to 255 to a new
+     *                 value, which is clamped to the range 0 to 255
+     * @return point operation backed by the tabulated function
+     */
+    public static PointOperation of(IntUnaryOperator function) {
+        if (function == null) throw new IllegalArgumentException("Null function");
+        byte[] table = new byte[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = (byte) Math.max(0, Math.min(255, function.applyAsInt(value)));
+        }
+        return new PointOperation(table, null);
+    }
+
+    /**
+     * Creates an operation that adds a constant to every sample, clamping the
+     * result to the range 0 to 255.
+     *
+     * @param delta amount to add, from -255 to 255
+     * @return brightness operation
+     */
+    public static PointOperation brightness(int delta) {
+        if (delta < -255 || delta > 255) throw new IllegalArgumentException("Invalid brightness");
+        return of(value -> value + delta);
+    }
+
+    /**
+     * Creates a gamma correction operation, which maps each sample v to
+     * 255 * (v / 255)^(1 / gamma) rounded to the nearest integer. A gamma
+     * above 1 brightens the mid-tones and a gamma below 1 darkens them.
+     *
+     * @param gamma positive gamma value
+     * @return gamma correction operation
+     */
+    public static PointOperation gamma(double gamma) {
+        if (!(gamma > 0) || Double.isInfinite(gamma)) throw new IllegalArgumentException("Invalid gamma");
+        double exponent = 1 / gamma;
+        return of(value -> (int) Math.round(255 * Math.pow(value / 255.0, exponent)));
+    }
+
+    /**
+     * Creates an operation that replaces each sample below a threshold with 0
+     * and every other sample with 255.
+     *
+     * @param threshold smallest sample value mapped to 255, from 0 to 256
+     * @return threshold operation
+     */
+    public static PointOperation threshold(int threshold) {
+        if (threshold < 0 || threshold > 256) throw new IllegalArgumentException("Invalid threshold");
+        return of(value -> value < threshold ? 0 : 255);
+    }
+
+    /**
+     * Creates an operation that reduces each channel to a number of evenly
+     * spaced levels, rounding each sample to the nearest level.
+     *
+     * @param levels number of levels per channel, from 2 to 256
+     * @return posterize operation
+     */
+    public static PointOperation posterize(int levels) {
+        if (levels < 2 || levels > 256) throw new IllegalArgumentException("Invalid levels");
+        int steps = levels - 1;
+        return of(value -> (int) Math.round(Math.round(value * steps / 255.0) * 255.0 / steps));
+    }
+
+    /**
+     * Returns the operation that applies this operation and then another.
+     *
+     * @param next operation applied to the output of this one
+     * @return single-table composition of the two operations
+     */
+    public PointOperation then(PointOperation next) {
+        if (next == null) throw new IllegalArgumentException("Null operation");
+        byte[] composed = new byte[256];
+        for (int value = 0; value < 256; value++) {
+            composed[value] = next.table[table[value] & 0xFF];
+        }
+        return new PointOperation(composed, null);
+    }
+
+    /**
+     * Returns the output of this operation for one sample value.
+     *
+     * @param value sample value from 0 to 255
+     * @return transformed sample value from 0 to 255
+     */
+    public int applyAsInt(int value) {
+        return table[value] & 0xFF;
+    }
+
+    /**
+     * Applies this operation to every value of a 2D array of RGB pixel values.
+     * Every value is checked before any is changed, so an invalid array is
+     * left as it was.
+     *
+     * @param pixels 2D array of RGB pixel values from 0 to 255
+     */
+    public void apply(int[][] pixels) {
+        for (int[] row : pixels) {
+            for (int value : row) {
+                if (value < 0 || value > 255) throw new IllegalArgumentException("Invalid value");
+            }
+        }
+        byte[] table = this.table;
+        for (int[] row : pixels) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = table[row[i]] & 0xFF;
+            }
+        }
+    }
+
+    @Override
+    public void apply(byte[] data, int offset, int length) {
+        if (kernel != null) {
+            kernel.apply(data, offset, length);
+            return;
+        }
+        byte[] table = this.table;
+        for (int i = offset; i < offset + length; i++) {
+            data[i] = table[data[i] & 0xFF];
+        }
+    }
+}
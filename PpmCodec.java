@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The PpmCodec class reads and writes PPM files through buffers it keeps
+ * between calls, for services that handle many images in a loop. Images are
+ * decoded into a caller-supplied PixelBuffer, which is reshaped to the size
+ * of each file and only grows when a file is larger than any before it.
+ * Once the buffers have grown to the largest image, reading and writing
+ * allocate nothing per image, and neither does applying a table-driven
+ * PixelOperation. The Vector API kernels of VectorSupport may allocate their
+ * vectors until the JIT has compiled them, or for good on a VM that cannot.
+ *
+ * A codec is not thread-safe; give each thread its own, and share images
+ * between threads through a PixelBufferPool.
+ *
+ * @author Moksh Thakore
+ */
+public class PpmCodec {
+
+    /** Stream the tokenizer and writer hold between calls, so no caller stream is kept reachable */
+    private static final InputStream NO_INPUT = InputStream.nullInputStream();
+
+    /** Stream the writer holds between calls */
+    private static final OutputStream NO_OUTPUT = OutputStream.nullOutputStream();
+
+    /** Tokenizer reused for every file read */
+    private final PpmTokenizer tokens = new PpmTokenizer(NO_INPUT);
+
+    /** Header reused for every file read */
+    private final PpmHeader header = new PpmHeader(false, 0, 0, 0);
+
+    /** Writer reused for every file written */
+    private final PpmWriter writer = new PpmWriter(NO_OUTPUT, true);
+
+    /**
+     * Reads and validates a PPM file into an existing image, reshaping it to
+     * the dimensions of the file. The contents of the image are unspecified
+     * if the file is invalid.
+     *
+     * @param in InputStream for the input PPM file
+     * @param into image receiving the samples
+     * @return true if the file is valid, false otherwise
+     * @throws IOException if the stream cannot be read
+     */
+    public boolean read(InputStream in, PixelBuffer into) throws IOException {
+        if (in == null) throw new IllegalArgumentException("Null file");
+        if (into == null) throw new IllegalArgumentException("Null image");
+
+        tokens.reset(in);
+        try {
+            if (!header.readFrom(tokens) || header.getSampleCount() > PixelBuffer.MAX_SAMPLES) return false;
+            into.reshape(header.getWidth(), header.getHeight());
+            return ImageEditor.readRows(tokens, header, into, header.getHeight());
+        } finally {
+            tokens.reset(NO_INPUT);
+        }
+    }
+
+    /**
+     * Reads and validates a PPM file into a PixelBuffer taken from a pool. If
+     * the file is invalid the buffer is returned to the pool; otherwise the
+     * caller should release it when done.
+     *
+     * @param in InputStream for the input PPM file
+     * @param pool pool supplying the buffer
+     * @return packed image, or null if the file is invalid
+     * @throws IOException if the stream cannot be read
+     */
+    public PixelBuffer read(InputStream in, PixelBufferPool pool) throws IOException {
+        return read(in, pool, PixelBuffer.MAX_SAMPLES);
+    }
+
+    /**
+     * Reads and validates a PPM file into a PixelBuffer taken from a pool,
+     * rejecting it before a buffer is acquired if its header announces more
+     * samples than allowed. This bounds the memory a file from an untrusted
+     * source can claim. If the file is invalid the buffer is returned to the
+     * pool; otherwise the caller should release it when done.
+     *
+     * @param in InputStream for the input PPM file
+     * @param pool pool supplying the buffer
+     * @param maxSamples largest number of samples accepted
+     * @return packed image, or null if the file is invalid or too large
+     * @throws IOException if the stream cannot be read
+     */
+    public PixelBuffer read(InputStream in, PixelBufferPool pool, long maxSamples) throws IOException {
+        if (in == null) throw new IllegalArgumentException("Null file");
+        if (pool == null) throw new IllegalArgumentException("Null pool");
+        if (maxSamples < 0) throw new IllegalArgumentException("Invalid limit");
+
+        tokens.reset(in);
+        try {
+            if (!header.readFrom(tokens) || header.getSampleCount() > Math.min(maxSamples, PixelBuffer.MAX_SAMPLES)) {
+                return null;
+            }
+            PixelBuffer image = pool.acquire(header.getWidth(), header.getHeight());
+            if (ImageEditor.readRows(tokens, header, image, header.getHeight())) {
+                return image;
+            }
+            pool.release(image);
+            return null;
+        } finally {
+            tokens.reset(NO_INPUT);
+        }
+    }
+
+    /**
+     * Writes an image, header included, and flushes the stream.
+     *
+     * @param out destination stream
+     * @param image packed RGB image
+     * @param binary true to write P6, false to write P3
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream out, PixelBuffer image, boolean binary) throws IOException {
+        if (image == null) throw new IllegalArgumentException("Null image");
+
+        writer.reset(out, binary);
+        try {
+            writer.writeHeader(image.getWidth(), image.getHeight());
+            writer.writeRows(image, 0, image.getHeight());
+            writer.flush();
+        } finally {
+            writer.reset(NO_OUTPUT, true);
+        }
+    }
+}
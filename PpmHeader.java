@@ -0,0 +1,135 @@
+import java.io.IOException;
+
+/**
+ * The PpmHeader class holds the validated header of a P3 or P6 PPM file:
+ * its encoding, its dimensions, and the offset at which the samples start.
+ * Only a maximum color value of 255 is accepted.
+ *
+ * @author Moksh Thakore
+ */
+public class PpmHeader {
+
+    /** Whether the raster is binary (P6) rather than ASCII (P3) */
+    private boolean binary;
+
+    /** Number of pixels per row */
+    private int width;
+
+    /** Number of rows */
+    private int height;
+
+    /** Offset of the first sample byte or token in the file */
+    private long dataOffset;
+
+    /**
+     * Constructs a header.
+     *
+     * @param binary whether the raster is binary (P6)
+     * @param width number of pixels per row
+     * @param height number of rows
+     * @param dataOffset offset of the first sample in the file
+     */
+    public PpmHeader(boolean binary, int width, int height, long dataOffset) {
+        this.binary = binary;
+        this.width = width;
+        this.height = height;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * Reads and validates a header. For a P6 file the single whitespace byte
+     * that ends the header is consumed, so the tokenizer is left at the first
+     * sample byte.
+     *
+     * @param tokens tokenizer positioned at the start of the file
+     * @return the header, or null if the header is invalid
+     * @throws IOException if the stream cannot be read
+     */
+    public static PpmHeader read(PpmTokenizer tokens) throws IOException {
+        PpmHeader header = new PpmHeader(false, 0, 0, 0);
+        return header.readFrom(tokens) ? header : null;
+    }
+
+    /**
+     * Reads and validates a header into this object, so a decoder can reuse
+     * one header for many files. The fields are unspecified if the header is
+     * invalid.
+     *
+     * @param tokens tokenizer positioned at the start of the file
+     * @return true if the header is valid
+     * @throws IOException if the stream cannot be read
+     */
+    boolean readFrom(PpmTokenizer tokens) throws IOException {
+        if (tokens == null) throw new IllegalArgumentException("Null file");
+
+        String format = tokens.nextMagic();
+        binary = "P6".equals(format);
+        if (!binary && !"P3".equals(format)) return false;
+
+        width = tokens.nextInt();
+        height = tokens.nextInt();
+        if (width <= 0 || height <= 0 || width > Integer.MAX_VALUE / 3) return false;
+
+        int maxColor = tokens.nextInt();
+        if (maxColor != 255) return false;
+
+        if (binary && !tokens.skipSingleWhitespace()) return false;
+        dataOffset = tokens.getPosition();
+        return true;
+    }
+
+    /**
+     * Returns whether the raster is binary (P6) rather than ASCII (P3).
+     *
+     * @return true for a P6 file
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Returns the number of pixels per row.
+     *
+     * @return image width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return image height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of samples in a row.
+     *
+     * @return width * 3
+     */
+    public int getRowLength() {
+        return width * 3;
+    }
+
+    /**
+     * Returns the total number of samples in the image.
+     *
+     * @return width * height * 3
+     */
+    public long getSampleCount() {
+        return (long) width * height * 3;
+    }
+
+    /**
+     * Returns the offset in the file of the first sample. For a P3 file this
+     * is the position just after the maximum color value.
+     *
+     * @return offset of the raster
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+}
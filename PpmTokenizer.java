@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The PpmTokenizer class reads the whitespace-separated header and ASCII
+ * sample tokens of a PPM file directly from an InputStream. Digits are
+ * accumulated straight from an internal byte buffer, so no regular
+ * expressions are evaluated and no String is created per token.
+ * Comments starting with '#' and running to the end of the line are skipped
+ * wherever whitespace is allowed.
+ *
+ * @author Moksh Thakore
+ */
+public class PpmTokenizer {
+
+    /** Value returned by nextInt when the next token is missing or not an integer */
+    public static final int NO_INT = Integer.MIN_VALUE;
+
+    /** Default size of the internal read buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Marker for the end of the stream */
+    private static final int EOF = -1;
+
+    /** Source of the PPM data */
+    private InputStream in;
+
+    /** Internal read buffer */
+    private final byte[] buffer;
+
+    /** Index of the next unread byte in the buffer */
+    private int position;
+
+    /** Number of valid bytes in the buffer */
+    private int limit;
+
+    /** Number of bytes read from the stream before the current buffer */
+    private long bufferStart;
+
+    /**
+     * Constructs a tokenizer reading from the given stream.
+     *
+     * @param in InputStream containing PPM data
+     */
+    public PpmTokenizer(InputStream in) {
+        if (in == null) throw new IllegalArgumentException("Null file");
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Starts reading a new stream, keeping the internal buffer.
+     *
+     * @param in InputStream containing PPM data
+     */
+    public void reset(InputStream in) {
+        if (in == null) throw new IllegalArgumentException("Null file");
+        this.in = in;
+        this.position = 0;
+        this.limit = 0;
+        this.bufferStart = 0;
+    }
+
+    /**
+     * Reads the two character magic number at the start of a PPM file,
+     * such as "P3". Leading whitespace and comments are skipped.
+     *
+     * @return the magic number, or null if the stream does not start with a
+     *         two character token
+     * @throws IOException if the stream cannot be read
+     */
+    public String nextMagic() throws IOException {
+        int first = skipWhitespace();
+        if (first == EOF) return null;
+        position++;
+        int second = peek();
+        if (second == EOF || isWhitespace(second)) return null;
+        position++;
+        int next = peek();
+        if (next != EOF && !isWhitespace(next) && next != '#') return null;
+        if (first == 'P' && second == '3') return "P3";
+        if (first == 'P' && second == '6') return "P6";
+        return "" + (char) first + (char) second;
+    }
+
+    /**
+     * Reads the next token as a decimal integer with an optional sign.
+     *
+     * @return the integer value, or NO_INT if the stream is exhausted, the
+     *         token contains a non-digit character, or the value overflows
+     * @throws IOException if the stream cannot be read
+     */
+    public int nextInt() throws IOException {
+        int c = skipWhitespace();
+        if (c == EOF) return NO_INT;
+
+        boolean negative = false;
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            position++;
+            c = peek();
+        }
+        if (c < '0' || c > '9') return NO_INT;
+
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) return NO_INT;
+            position++;
+            c = peek();
+        }
+        if (c != EOF && !isWhitespace(c) && c != '#') return NO_INT;
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Consumes the single whitespace byte that separates the header of a
+     * binary PPM file from its raster.
+     *
+     * @return true if a whitespace byte was consumed
+     * @throws IOException if the stream cannot be read
+     */
+    public boolean skipSingleWhitespace() throws IOException {
+        int c = peek();
+        if (c == EOF || !isWhitespace(c)) return false;
+        position++;
+        return true;
+    }
+
+    /**
+     * Reads raw bytes, draining the internal buffer before reading the
+     * underlying stream in bulk.
+     *
+     * @param dest destination array
+     * @param offset first index of dest to fill
+     * @param length number of bytes to read
+     * @return true if all length bytes were read, false on a premature end of stream
+     * @throws IOException if the stream cannot be read
+     */
+    public boolean readFully(byte[] dest, int offset, int length) throws IOException {
+        int buffered = Math.min(limit - position, length);
+        System.arraycopy(buffer, position, dest, offset, buffered);
+        position += buffered;
+        offset += buffered;
+        length -= buffered;
+        while (length > 0) {
+            int count = in.read(dest, offset, length);
+            if (count < 0) return false;
+            bufferStart += count;
+            offset += count;
+            length -= count;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes consumed so far, which is the offset in the
+     * stream of the next byte to be returned.
+     *
+     * @return stream position of the tokenizer
+     */
+    public long getPosition() {
+        return bufferStart + position;
+    }
+
+    /**
+     * Skips whitespace and comments.
+     *
+     * @return the next non-whitespace byte without consuming it, or EOF
+     * @throws IOException if the stream cannot be read
+     */
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == EOF) return EOF;
+            if (c == '#') {
+                do {
+                    position++;
+                    c = peek();
+                } while (c != EOF && c != '\n' && c != '\r');
+            } else if (isWhitespace(c)) {
+                position++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Returns the next byte without consuming it.
+     *
+     * @return the next byte as an unsigned value, or EOF
+     * @throws IOException if the stream cannot be read
+     */
+    private int peek() throws IOException {
+        if (position == limit && fill() == EOF) return EOF;
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Refills the internal buffer from the stream.
+     *
+     * @return number of bytes read, or EOF
+     * @throws IOException if the stream cannot be read
+     */
+    private int fill() throws IOException {
+        bufferStart += limit;
+        int count;
+        do {
+            count = in.read(buffer, 0, buffer.length);
+        } while (count == 0);
+        position = 0;
+        limit = Math.max(count, 0);
+        return count < 0 ? EOF : count;
+    }
+
+    /**
+     * Tests whether a byte is PPM whitespace.
+     *
+     * @param c byte value
+     * @return true for space, tab, carriage return, newline, vertical tab or form feed
+     */
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == 0x0B || c == '\f';
+    }
+}
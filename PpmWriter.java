@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The PpmWriter class encodes PixelBuffer rows as P3 or P6 PPM data. The
+ * decimal text of each sample is copied from a precomputed table of the 256
+ * possible values into a reusable byte buffer, which is written to the
+ * stream a whole chunk at a time. The P3 output is byte-for-byte the same as
+ * ImageEditor.outputPPM: a space between samples and the platform line
+ * separator after each row.
+ *
+ * @author Moksh Thakore
+ */
+public class PpmWriter {
+
+    /** Size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** ASCII digits of every sample value, 4 bytes reserved per value */
+    private static final byte[] DIGITS = new byte[256 * 4];
+
+    /** Number of digits of every sample value */
+    private static final byte[] DIGIT_COUNTS = new byte[256];
+
+    /** Line separator written after each row, matching PrintWriter.println */
+    static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int value = 0; value < 256; value++) {
+            byte[] text = Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(text, 0, DIGITS, value * 4, text.length);
+            DIGIT_COUNTS[value] = (byte) text.length;
+        }
+    }
+
+    /** Destination stream */
+    private OutputStream out;
+
+    /** Whether rows are written as binary (P6) rather than ASCII (P3) */
+    private boolean binary;
+
+    /** Pending output */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /** Number of pending bytes in the buffer */
+    private int count;
+
+    /**
+     * Constructs a writer.
+     *
+     * @param out destination stream
+     * @param binary true to write P6, false to write P3
+     */
+    public PpmWriter(OutputStream out, boolean binary) {
+        if (out == null) throw new IllegalArgumentException("Null file");
+        this.out = out;
+        this.binary = binary;
+    }
+
+    /**
+     * Starts writing a new stream, keeping the output buffer. Any pending
+     * bytes for the previous stream are discarded, so flush it first.
+     *
+     * @param out destination stream
+     * @param binary true to write P6, false to write P3
+     */
+    public void reset(OutputStream out, boolean binary) {
+        if (out == null) throw new IllegalArgumentException("Null file");
+        this.out = out;
+        this.binary = binary;
+        this.count = 0;
+    }
+
+    /**
+     * Writes a whole image, header included, and flushes the stream.
+     *
+     * @param out destination stream
+     * @param image packed RGB image
+     * @param binary true to write P6, false to write P3
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(OutputStream out, PixelBuffer image, boolean binary) throws IOException {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        PpmWriter writer = new PpmWriter(out, binary);
+        writer.writeHeader(image.getWidth(), image.getHeight());
+        writer.writeRows(image, 0, image.getHeight());
+        writer.flush();
+    }
+
+    /**
+     * Writes the header.
+     *
+     * @param width number of pixels per row
+     * @param height number of rows
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeHeader(int width, int height) throws IOException {
+        ensureCapacity(64);
+        buffer[count++] = 'P';
+        buffer[count++] = (byte) (binary ? '6' : '3');
+        writeHeaderSeparator();
+        writeDecimal(width);
+        buffer[count++] = ' ';
+        writeDecimal(height);
+        writeHeaderSeparator();
+        writeDecimal(255);
+        writeHeaderSeparator();
+    }
+
+    /**
+     * Appends the separator between header fields: a newline for P6, as
+     * most readers expect, and the platform line separator for P3.
+     */
+    private void writeHeaderSeparator() {
+        if (binary) {
+            buffer[count++] = '\n';
+        } else {
+            System.arraycopy(LINE_SEPARATOR, 0, buffer, count, LINE_SEPARATOR.length);
+            count += LINE_SEPARATOR.length;
+        }
+    }
+
+    /**
+     * Appends the decimal digits of a non-negative number without creating a String.
+     *
+     * @param value number to append
+     */
+    private void writeDecimal(int value) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    /**
+     * Writes a range of rows of an image.
+     *
+     * @param image packed RGB image
+     * @param fromRow first row, inclusive
+     * @param toRow last row, exclusive
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeRows(PixelBuffer image, int fromRow, int toRow) throws IOException {
+        byte[] data = image.getData();
+        int rowLength = image.getRowLength();
+        for (int row = fromRow; row < toRow; row++) {
+            int offset = image.rowOffset(row);
+            if (binary) {
+                writeBytes(data, offset, rowLength);
+            } else {
+                writeTextRow(data, offset, rowLength);
+            }
+        }
+    }
+
+    /**
+     * Writes any pending bytes and flushes the stream.
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Encodes one row as space-separated decimal samples followed by a line separator.
+     *
+     * @param data packed RGB samples
+     * @param offset index of the first sample of the row
+     * @param length number of samples in the row
+     * @throws IOException if the stream cannot be written
+     */
+    private void writeTextRow(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        for (int i = offset; i < end; ) {
+            // Each sample takes at most 3 digits and a space
+            int samples = Math.min(end - i, (BUFFER_SIZE - count) / 4);
+            if (samples == 0) {
+                drain();
+                continue;
+            }
+            count = encodeSamples(data, i, i + samples, end, buffer, count);
+            i += samples;
+        }
+        writeBytes(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+    }
+
+    /**
+     * Returns the number of bytes a range of rows takes in P3, as written
+     * by writeRows.
+     *
+     * @param image packed RGB image
+     * @param fromRow first row, inclusive
+     * @param toRow last row, exclusive
+     * @return encoded length in bytes
+     */
+    static long textLength(PixelBuffer image, int fromRow, int toRow) {
+        byte[] data = image.getData();
+        int rowLength = image.getRowLength();
+        long length = (long) (toRow - fromRow) * (rowLength - 1 + LINE_SEPARATOR.length);
+        for (int row = fromRow; row < toRow; row++) {
+            int offset = image.rowOffset(row);
+            for (int i = offset; i < offset + rowLength; i++) {
+                length += DIGIT_COUNTS[data[i] & 0xFF];
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a range of rows in P3 into an array, as written by writeRows.
+     *
+     * @param image packed RGB image
+     * @param fromRow first row, inclusive
+     * @param toRow last row, exclusive
+     * @param out array with room for textLength(image, fromRow, toRow) bytes
+     * @param position index in out of the first byte
+     * @return index in out just past the last byte
+     */
+    static int encodeText(PixelBuffer image, int fromRow, int toRow, byte[] out, int position) {
+        byte[] data = image.getData();
+        int rowLength = image.getRowLength();
+        for (int row = fromRow; row < toRow; row++) {
+            int offset = image.rowOffset(row);
+            position = encodeSamples(data, offset, offset + rowLength, offset + rowLength, out, position);
+            System.arraycopy(LINE_SEPARATOR, 0, out, position, LINE_SEPARATOR.length);
+            position += LINE_SEPARATOR.length;
+        }
+        return position;
+    }
+
+    /**
+     * Encodes samples from the table of digits, each followed by a space
+     * unless it ends its row.
+     *
+     * @param data packed RGB samples
+     * @param from index of the first sample, inclusive
+     * @param to index of the last sample, exclusive
+     * @param rowEnd index just past the last sample of the row
+     * @param out array with room for 4 bytes per sample
+     * @param position index in out of the first byte
+     * @return index in out just past the last byte
+     */
+    private static int encodeSamples(byte[] data, int from, int to, int rowEnd, byte[] out, int position) {
+        for (int i = from; i < to; i++) {
+            int value = data[i] & 0xFF;
+            int digits = value * 4;
+            int digitCount = DIGIT_COUNTS[value];
+            out[position] = DIGITS[digits];
+            if (digitCount > 1) out[position + 1] = DIGITS[digits + 1];
+            if (digitCount > 2) out[position + 2] = DIGITS[digits + 2];
+            position += digitCount;
+            if (i < rowEnd - 1) out[position++] = ' ';
+        }
+        return position;
+    }
+
+    /**
+     * Appends bytes to the buffer, writing straight to the stream when they
+     * do not fit.
+     *
+     * @param bytes source array
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @throws IOException if the stream cannot be written
+     */
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > BUFFER_SIZE - count) {
+            drain();
+            if (length > BUFFER_SIZE) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * Makes room for a number of bytes in the buffer.
+     *
+     * @param length number of bytes needed, at most the buffer size
+     * @throws IOException if the stream cannot be written
+     */
+    private void ensureCapacity(int length) throws IOException {
+        if (length > BUFFER_SIZE - count) drain();
+    }
+
+    /**
+     * Writes the pending bytes to the stream.
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The Preview class builds a low-resolution copy of an image from every Nth
+ * row and every Nth column, so a preview can be written long before the
+ * full-resolution output of a huge image. For a binary (P6) file the sampled
+ * rows are located by offset and read through memory mappings, so only the
+ * pages holding sampled pixels are read and the cost grows with the size of
+ * the preview rather than of the file. An ASCII (P3) file cannot be entered
+ * in the middle, since rows have no fixed length, so its preview is sampled
+ * from the parsed image instead.
+ *
+ * With --preview=N, ImageEditor writes the preview, with the operations
+ * applied, to the output name with .preview.ppm in place of its extension
+ * before the full-resolution output, and deletes it if the conversion
+ * fails. A result cache hit writes the full output at once and no preview.
+ *
+ * @author Moksh Thakore
+ */
+public class Preview {
+
+    /** Suffix replacing ".ppm" or ".pxb" in the name of the preview of an output file */
+    public static final String SUFFIX = ".preview.ppm";
+
+    /**
+     * Returns the file a preview of an output file is written to, such as
+     * out.preview.ppm for out.ppm. The preview is always a PPM file, so the
+     * preview of out.pxb is out.preview.ppm as well.
+     *
+     * @param output full-resolution output file
+     * @return preview file next to it
+     */
+    public static File fileFor(File output) {
+        if (output == null) throw new IllegalArgumentException("Null file");
+        String name = output.getName();
+        String base = name;
+        for (String extension : new String[] {".ppm", PxbFormat.EXTENSION}) {
+            if (name.endsWith(extension)) {
+                base = name.substring(0, name.length() - extension.length());
+            }
+        }
+        return new File(output.getParentFile(), base + SUFFIX);
+    }
+
+    /**
+     * Returns the size of the preview of one dimension of an image.
+     *
+     * @param size width or height of the image
+     * @param step distance between sampled rows or columns
+     * @return number of rows or columns sampled
+     */
+    private static int sampledSize(int size, int step) {
+        return (size + step - 1) / step;
+    }
+
+    /**
+     * Samples every step-th row and column of an image, starting with the first.
+     *
+     * @param image full-resolution image
+     * @param step distance between sampled rows and columns, at least 1
+     * @return preview image
+     */
+    public static PixelBuffer sample(PixelBuffer image, int step) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (step < 1) throw new IllegalArgumentException("Invalid step");
+
+        PixelBuffer preview = new PixelBuffer(sampledSize(image.getWidth(), step),
+                                              sampledSize(image.getHeight(), step));
+        byte[] source = image.getData();
+        byte[] target = preview.getData();
+        for (int y = 0; y < preview.getHeight(); y++) {
+            int from = image.rowOffset(y * step);
+            int to = preview.rowOffset(y);
+            for (int x = 0; x < preview.getWidth(); x++) {
+                int sample = from + x * step * 3;
+                target[to + x * 3] = source[sample];
+                target[to + x * 3 + 1] = source[sample + 1];
+                target[to + x * 3 + 2] = source[sample + 2];
+            }
+        }
+        return preview;
+    }
+
+    /**
+     * Samples every step-th row and column of a P6 file without reading the
+     * rest of the raster.
+     *
+     * @param file path of the PPM file
+     * @param step distance between sampled rows and columns, at least 1
+     * @return preview image, or null if the file is not a complete P6 file
+     * @throws IOException if the file cannot be read
+     */
+    public static PixelBuffer read(Path file, int step) throws IOException {
+        if (file == null) throw new IllegalArgumentException("Null file");
+        if (step < 1) throw new IllegalArgumentException("Invalid step");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            PpmHeader header = MappedImageEditor.readHeader(channel);
+            if (header == null || !header.isBinary()
+                || channel.size() - header.getDataOffset() < header.getSampleCount()) {
+                return null;
+            }
+
+            int rowLength = header.getRowLength();
+            PixelBuffer preview = new PixelBuffer(sampledSize(header.getWidth(), step),
+                                                  sampledSize(header.getHeight(), step));
+            byte[] target = preview.getData();
+            for (int y = 0; y < preview.getHeight(); y++) {
+                long offset = header.getDataOffset() + (long) y * step * rowLength;
+                MappedByteBuffer row = channel.map(FileChannel.MapMode.READ_ONLY, offset, rowLength);
+                int to = preview.rowOffset(y);
+                for (int x = 0; x < preview.getWidth(); x++) {
+                    int sample = x * step * 3;
+                    target[to + x * 3] = row.get(sample);
+                    target[to + x * 3 + 1] = row.get(sample + 1);
+                    target[to + x * 3 + 2] = row.get(sample + 2);
+                }
+            }
+            return preview;
+        }
+    }
+}
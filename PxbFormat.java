@@ -0,0 +1,315 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The PxbFormat class reads and writes PXB files, a compact container for
+ * intermediate images. A PXB file starts with the magic bytes "PXB1", the
+ * width, the height and the number of rows per band, followed by the
+ * compressed length of every band and then the bands themselves, all
+ * integers big-endian. Each band is stored with every sample replaced by
+ * its difference from the same channel of the pixel to its left, which
+ * turns smooth regions into runs of small values, and then compressed with
+ * Deflater at its fastest level. Since the lengths of the bands come first,
+ * every band can be located and decompressed independently, and bands are
+ * compressed and decompressed in parallel on a RowExecutor. A file is read
+ * before anything is allocated for its pixels, and every band length is
+ * checked against the most Deflater can produce for the band, so a forged
+ * header fails as an invalid file rather than exhausting memory.
+ *
+ * @author Moksh Thakore
+ */
+public class PxbFormat {
+
+    /** Bytes at the start of every PXB file */
+    static final byte[] MAGIC = "PXB1".getBytes(StandardCharsets.US_ASCII);
+
+    /** File name extension of PXB files */
+    public static final String EXTENSION = ".pxb";
+
+    /** Number of samples aimed for in each band */
+    static final int BAND_SAMPLES = 1 << 18;
+
+    /** Largest number of bytes or band lengths allocated before they are read */
+    private static final int READ_CHUNK = 1 << 16;
+
+    /**
+     * Tests whether a file name has the PXB extension.
+     *
+     * @param name file name
+     * @return true if the name ends with .pxb
+     */
+    public static boolean isPxbName(String name) {
+        return name != null && name.endsWith(EXTENSION);
+    }
+
+    /**
+     * Tests whether a stream starts with the PXB magic bytes, without
+     * consuming them.
+     *
+     * @param in stream able to push back at least MAGIC.length bytes
+     * @return true if the next bytes are the PXB magic bytes
+     * @throws IOException if the stream cannot be read
+     */
+    static boolean startsWithMagic(PushbackInputStream in) throws IOException {
+        byte[] start = new byte[MAGIC.length];
+        int count = 0;
+        while (count < start.length) {
+            int read = in.read(start, count, start.length - count);
+            if (read < 0) break;
+            count += read;
+        }
+        in.unread(start, 0, count);
+        return count == start.length && Arrays.equals(start, MAGIC);
+    }
+
+    /**
+     * Writes an image as a PXB file, compressing its bands on the threads
+     * of the executor. The stream is flushed but not closed.
+     *
+     * @param out destination stream
+     * @param image packed RGB image
+     * @param executor executor whose threads compress the bands
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(OutputStream out, PixelBuffer image, RowExecutor executor) throws IOException {
+        if (out == null) throw new IllegalArgumentException("Null file");
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+
+        int height = image.getHeight();
+        int rowLength = image.getRowLength();
+        int bandRows = Math.max(1, BAND_SAMPLES / rowLength);
+        int bands = (height + bandRows - 1) / bandRows;
+        byte[][] blocks = new byte[bands][];
+        executor.forEachTask(bands, (from, to) -> {
+            byte[] filtered = new byte[Math.min(bandRows, height) * rowLength];
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                for (int band = from; band < to; band++) {
+                    int fromRow = band * bandRows;
+                    int rows = Math.min(bandRows, height - fromRow);
+                    for (int row = 0; row < rows; row++) {
+                        filterRow(image.getData(), image.rowOffset(fromRow + row), filtered, row * rowLength,
+                                  rowLength);
+                    }
+                    blocks[band] = compress(deflater, filtered, rows * rowLength);
+                }
+            } finally {
+                deflater.end();
+            }
+        });
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeInt(image.getWidth());
+        data.writeInt(height);
+        data.writeInt(bandRows);
+        for (byte[] block : blocks) {
+            data.writeInt(block.length);
+        }
+        for (byte[] block : blocks) {
+            data.write(block);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads and validates a PXB file, decompressing its bands on the
+     * threads of the executor.
+     *
+     * @param in InputStream for the PXB file
+     * @param executor executor whose threads decompress the bands
+     * @return packed image, or null if the file is not a complete PXB file
+     * @throws IOException if the stream cannot be read
+     */
+    public static PixelBuffer read(InputStream in, RowExecutor executor) throws IOException {
+        if (in == null) throw new IllegalArgumentException("Null file");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+
+        DataInputStream data = new DataInputStream(in);
+        byte[][] blocks;
+        int width;
+        int height;
+        int bandRows;
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) return null;
+            width = data.readInt();
+            height = data.readInt();
+            bandRows = data.readInt();
+            if (width <= 0 || height <= 0 || bandRows <= 0 || (long) width * height * 3 > PixelBuffer.MAX_SAMPLES) {
+                return null;
+            }
+            // Nothing is allocated ahead of the bytes that fill it, so a forged header cannot exhaust memory
+            int bands = (int) ((height + (long) bandRows - 1) / bandRows);
+            int[] lengths = new int[Math.min(bands, READ_CHUNK)];
+            for (int band = 0; band < bands; band++) {
+                if (band == lengths.length) {
+                    lengths = Arrays.copyOf(lengths, (int) Math.min(bands, 2L * band));
+                }
+                int rows = Math.min(bandRows, height - band * bandRows);
+                lengths[band] = data.readInt();
+                if (lengths[band] < 0 || lengths[band] > maxCompressedLength(rows * width * 3)) return null;
+            }
+            blocks = new byte[bands][];
+            for (int band = 0; band < bands; band++) {
+                blocks[band] = readBlock(data, lengths[band]);
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+
+        PixelBuffer image = new PixelBuffer(width, height);
+        int rowLength = image.getRowLength();
+        AtomicBoolean valid = new AtomicBoolean(true);
+        executor.forEachTask(blocks.length, (from, to) -> {
+            Inflater inflater = new Inflater();
+            try {
+                for (int band = from; band < to && valid.get(); band++) {
+                    int fromRow = band * bandRows;
+                    int rows = Math.min(bandRows, height - fromRow);
+                    int offset = image.rowOffset(fromRow);
+                    inflater.reset();
+                    inflater.setInput(blocks[band]);
+                    if (!decompress(inflater, image.getData(), offset, rows * rowLength)) {
+                        valid.set(false);
+                        return;
+                    }
+                    for (int row = 0; row < rows; row++) {
+                        unfilterRow(image.getData(), offset + row * rowLength, rowLength);
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        });
+        return valid.get() ? image : null;
+    }
+
+    /**
+     * Returns the largest size Deflater can give a block, the zlib bound for
+     * incompressible data.
+     *
+     * @param length number of bytes compressed
+     * @return upper bound on the compressed length
+     */
+    static long maxCompressedLength(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13L;
+    }
+
+    /**
+     * Reads a block, growing its array only as the bytes arrive.
+     *
+     * @param in stream positioned at the block
+     * @param length length of the block
+     * @return the block
+     * @throws IOException if the stream cannot be read or ends within the block
+     */
+    private static byte[] readBlock(InputStream in, int length) throws IOException {
+        byte[] block = new byte[Math.min(length, READ_CHUNK)];
+        int done = 0;
+        while (done < length) {
+            if (done == block.length) {
+                block = Arrays.copyOf(block, (int) Math.min(length, 2L * done));
+            }
+            int read = in.read(block, done, block.length - done);
+            if (read < 0) throw new EOFException();
+            done += read;
+        }
+        return block;
+    }
+
+    /**
+     * Replaces every sample of a row after the first pixel with its
+     * difference from the same channel of the pixel to its left.
+     *
+     * @param source image samples
+     * @param offset index of the first sample of the row in source
+     * @param target receives the filtered row
+     * @param targetOffset index in target of the first sample
+     * @param rowLength number of samples in the row
+     */
+    private static void filterRow(byte[] source, int offset, byte[] target, int targetOffset, int rowLength) {
+        System.arraycopy(source, offset, target, targetOffset, Math.min(3, rowLength));
+        for (int i = 3; i < rowLength; i++) {
+            target[targetOffset + i] = (byte) (source[offset + i] - source[offset + i - 3]);
+        }
+    }
+
+    /**
+     * Undoes filterRow in place.
+     *
+     * @param data filtered samples
+     * @param offset index of the first sample of the row
+     * @param rowLength number of samples in the row
+     */
+    private static void unfilterRow(byte[] data, int offset, int rowLength) {
+        for (int i = offset + 3; i < offset + rowLength; i++) {
+            data[i] = (byte) (data[i] + data[i - 3]);
+        }
+    }
+
+    /**
+     * Compresses bytes into a new array.
+     *
+     * @param deflater deflater to reset and reuse
+     * @param bytes bytes to compress
+     * @param length number of bytes
+     * @return compressed bytes
+     */
+    private static byte[] compress(Deflater deflater, byte[] bytes, int length) {
+        deflater.reset();
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+        byte[] chunk = new byte[1 << 16];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            out.write(chunk, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a block into exactly the given number of bytes.
+     *
+     * @param inflater inflater holding the block
+     * @param target receives the bytes
+     * @param offset index in target of the first byte
+     * @param length number of bytes expected
+     * @return true if the block held exactly length bytes
+     */
+    private static boolean decompress(Inflater inflater, byte[] target, int offset, int length) {
+        try {
+            int done = 0;
+            while (done < length) {
+                int count = inflater.inflate(target, offset + done, length - done);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    return false;
+                }
+                done += count;
+            }
+            if (!inflater.finished()) {
+                // The end of the block may only be seen by one more call, which must yield nothing
+                byte[] extra = new byte[1];
+                if (inflater.inflate(extra) != 0 || !inflater.finished()) return false;
+            }
+            return true;
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+}
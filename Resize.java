@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The Resize class scales an image to a new width and height. Each output
+ * sample is a weighted sum of source samples, and the source indices and
+ * weights of every output column and row are computed once per image, so
+ * the inner loops only multiply and add. Columns are resampled first, then
+ * rows, a band of output rows at a time on the RowExecutor.
+ *
+ * Three modes are offered: nearest takes the closest source pixel,
+ * bilinear blends the two closest pixels along each axis, and box averages
+ * every source pixel the output pixel covers, weighted by the area covered,
+ * which gives the best thumbnails. A box downscale can also be computed while
+ * the image is being parsed, one source row at a time, so the full-size image
+ * is never held in memory.
+ *
+ * @author Moksh Thakore
+ */
+public class Resize implements ImageOperation {
+
+    /**
+     * How output pixels are computed from source pixels.
+     */
+    public enum Mode {
+        /** The closest source pixel */
+        NEAREST,
+        /** A blend of the two closest source pixels along each axis */
+        BILINEAR,
+        /** The area-weighted average of the source pixels covered */
+        BOX
+    }
+
+    /** Largest width or height accepted */
+    public static final int MAX_SIZE = 1 << 16;
+
+    /** Number of output rows resampled together within a band */
+    static final int BLOCK_ROWS = 16;
+
+    /** Width of the result */
+    private final int width;
+
+    /** Height of the result */
+    private final int height;
+
+    /** How output pixels are computed */
+    private final Mode mode;
+
+    /**
+     * Constructs a resize operation.
+     *
+     * @param width width of the result, 1 to MAX_SIZE
+     * @param height height of the result, 1 to MAX_SIZE
+     * @param mode how output pixels are computed
+     */
+    public Resize(int width, int height, Mode mode) {
+        if (!isValidSize(width, height)) throw new IllegalArgumentException("Invalid dimensions");
+        if (mode == null) throw new IllegalArgumentException("Null mode");
+        this.width = width;
+        this.height = height;
+        this.mode = mode;
+    }
+
+    /**
+     * Tests whether a result of the given size can be held in a PixelBuffer.
+     *
+     * @param width width of the result
+     * @param height height of the result
+     * @return true if both are from 1 to MAX_SIZE and the result has at most
+     *         PixelBuffer.MAX_SAMPLES samples
+     */
+    public static boolean isValidSize(int width, int height) {
+        return width > 0 && height > 0 && width <= MAX_SIZE && height <= MAX_SIZE
+               && (long) width * height * 3 <= PixelBuffer.MAX_SAMPLES;
+    }
+
+    /**
+     * Returns the width of the result.
+     *
+     * @return width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the result.
+     *
+     * @return height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns how output pixels are computed.
+     *
+     * @return resampling mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the resize that gives the same result at a lower resolution,
+     * for an image already reduced to every step-th row and column.
+     *
+     * @param step distance between the sampled rows and columns, at least 1
+     * @return resize to width / step by height / step, rounded up
+     */
+    public Resize scaledDown(int step) {
+        if (step < 1) throw new IllegalArgumentException("Invalid step");
+        return new Resize((width + step - 1) / step, (height + step - 1) / step, mode);
+    }
+
+    @Override
+    public PixelBuffer apply(PixelBuffer image, RowExecutor executor) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+
+        PixelBuffer result = new PixelBuffer(width, height);
+        Axis columns = new Axis(image.getWidth(), width, mode);
+        Axis rows = new Axis(image.getHeight(), height, mode);
+        executor.forEachBand(result, (fromRow, toRow) -> {
+            float[] resampled = null;
+            float[] sums = new float[width * 3];
+            for (int row = fromRow; row < toRow; row += BLOCK_ROWS) {
+                int blockEnd = Math.min(row + BLOCK_ROWS, toRow);
+
+                // Resample the columns of every source row the block reads
+                int firstSource = rows.firstIndex(row);
+                int lastSource = rows.lastIndex(blockEnd - 1);
+                int needed = (lastSource - firstSource + 1) * width * 3;
+                if (resampled == null || resampled.length < needed) {
+                    resampled = new float[needed];
+                }
+                for (int source = firstSource; source <= lastSource; source++) {
+                    resampleRow(image.getData(), image.rowOffset(source), columns, resampled,
+                                (source - firstSource) * width * 3);
+                }
+
+                for (int y = row; y < blockEnd; y++) {
+                    storeRow(result, y, rows, resampled, firstSource, sums);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads a PPM image whose header has been read and box-downscales it
+     * while parsing, holding one source row at a time.
+     *
+     * @param tokens tokenizer positioned at the start of the raster
+     * @param header header of the image
+     * @param before per-pixel operation applied to each source row before
+     *               it is averaged, or null
+     * @return the resized image, or null if the raster is invalid
+     * @throws IOException if the stream cannot be read
+     */
+    PixelBuffer read(PpmTokenizer tokens, PpmHeader header, PixelOperation before) throws IOException {
+        if (mode != Mode.BOX) throw new IllegalStateException("Only a box resize can be streamed");
+
+        Axis columns = new Axis(header.getWidth(), width, mode);
+        double scale = (double) header.getHeight() / height;
+        int rowLength = width * 3;
+        // Sums are kept only for the output rows a source row can overlap, reused in turn
+        int window = (int) Math.min(height, (height + (long) header.getHeight() - 1) / header.getHeight() + 1);
+        PixelBuffer sourceRow = new PixelBuffer(header.getWidth(), 1);
+        PixelBuffer result = new PixelBuffer(width, height);
+        float[] resampled = new float[rowLength];
+        float[] sums = new float[window * rowLength];
+        int stored = 0;
+        for (int source = 0; source < header.getHeight(); source++) {
+            if (!ImageEditor.readRows(tokens, header, sourceRow, 1)) return null;
+            if (before != null) {
+                before.apply(sourceRow.getData(), 0, sourceRow.getRowLength());
+            }
+            resampleRow(sourceRow.getData(), 0, columns, resampled, 0);
+
+            // Output rows above the first this row overlaps are complete
+            int first = (int) Math.floor(source / scale);
+            for (; stored < Math.min(first, height); stored++) {
+                storeSums(result, stored, sums, (stored % window) * rowLength);
+            }
+
+            // Add the row to every output row it overlaps, weighted by the overlap
+            for (int y = first; y < height && y * scale < source + 1; y++) {
+                double overlap = Math.min(source + 1, (y + 1) * scale) - Math.max(source, y * scale);
+                if (overlap <= 0) continue;
+                float weight = (float) (overlap / scale);
+                int target = (y % window) * rowLength;
+                for (int i = 0; i < rowLength; i++) {
+                    sums[target + i] += weight * resampled[i];
+                }
+            }
+        }
+        for (; stored < height; stored++) {
+            storeSums(result, stored, sums, (stored % window) * rowLength);
+        }
+        return result;
+    }
+
+    /**
+     * Rounds the sums of one output row into the result and clears them for
+     * the next row that uses them.
+     *
+     * @param result image receiving the row
+     * @param row output row
+     * @param sums weighted sums of the rows being accumulated
+     * @param offset index in sums of the first sum of the row
+     */
+    private static void storeSums(PixelBuffer result, int row, float[] sums, int offset) {
+        byte[] data = result.getData();
+        int target = result.rowOffset(row);
+        for (int i = 0; i < result.getRowLength(); i++) {
+            data[target + i] = clamp(sums[offset + i]);
+            sums[offset + i] = 0;
+        }
+    }
+
+    /**
+     * Resamples the columns of one source row.
+     *
+     * @param data source samples
+     * @param offset index of the first sample of the row
+     * @param columns taps of each output column
+     * @param out receives the resampled row
+     * @param outOffset index in out of the first resampled sample
+     */
+    private static void resampleRow(byte[] data, int offset, Axis columns, float[] out, int outOffset) {
+        int taps = columns.taps;
+        for (int x = 0; x < columns.size; x++) {
+            float red = 0;
+            float green = 0;
+            float blue = 0;
+            for (int t = x * taps; t < (x + 1) * taps; t++) {
+                int sample = offset + columns.index[t] * 3;
+                float weight = columns.weight[t];
+                red += weight * (data[sample] & 0xFF);
+                green += weight * (data[sample + 1] & 0xFF);
+                blue += weight * (data[sample + 2] & 0xFF);
+            }
+            out[outOffset + x * 3] = red;
+            out[outOffset + x * 3 + 1] = green;
+            out[outOffset + x * 3 + 2] = blue;
+        }
+    }
+
+    /**
+     * Combines resampled source rows into one output row.
+     *
+     * @param result image receiving the row
+     * @param row output row
+     * @param rows taps of each output row
+     * @param resampled resampled source rows, starting with firstSource
+     * @param firstSource source row at the start of resampled
+     * @param sums scratch space for one output row
+     */
+    private static void storeRow(PixelBuffer result, int row, Axis rows, float[] resampled, int firstSource,
+                                 float[] sums) {
+        int rowLength = result.getRowLength();
+        byte[] data = result.getData();
+        int target = result.rowOffset(row);
+        Arrays.fill(sums, 0f);
+        for (int t = row * rows.taps; t < (row + 1) * rows.taps; t++) {
+            float weight = rows.weight[t];
+            if (weight == 0) continue;
+            int source = (rows.index[t] - firstSource) * rowLength;
+            for (int i = 0; i < rowLength; i++) {
+                sums[i] += weight * resampled[source + i];
+            }
+        }
+        for (int i = 0; i < rowLength; i++) {
+            data[target + i] = clamp(sums[i]);
+        }
+    }
+
+    /**
+     * Rounds a sum to the nearest sample value.
+     *
+     * @param value weighted sum
+     * @return the value rounded and clamped to 0 to 255, as a byte
+     */
+    private static byte clamp(float value) {
+        int rounded = (int) (value + 0.5f);
+        return (byte) (rounded < 0 ? 0 : rounded > 255 ? 255 : rounded);
+    }
+
+    /**
+     * Source indices and weights of every output position along one axis.
+     * Each position has the same number of taps; unused taps have weight 0
+     * and repeat a valid index.
+     */
+    private static final class Axis {
+
+        /** Number of output positions */
+        final int size;
+
+        /** Number of taps per output position */
+        final int taps;
+
+        /** Source index of each tap */
+        final int[] index;
+
+        /** Weight of each tap */
+        final float[] weight;
+
+        /**
+         * Computes the taps of an axis.
+         *
+         * @param sourceSize number of source positions
+         * @param size number of output positions
+         * @param mode resampling mode
+         */
+        Axis(int sourceSize, int size, Mode mode) {
+            double scale = (double) sourceSize / size;
+            this.size = size;
+            this.taps = mode == Mode.NEAREST ? 1 : mode == Mode.BILINEAR ? 2 : (int) Math.ceil(scale) + 1;
+            this.index = new int[size * taps];
+            this.weight = new float[size * taps];
+            for (int o = 0; o < size; o++) {
+                int base = o * taps;
+                switch (mode) {
+                    case NEAREST:
+                        index[base] = Math.min((int) ((o + 0.5) * scale), sourceSize - 1);
+                        weight[base] = 1;
+                        break;
+                    case BILINEAR: {
+                        double centre = (o + 0.5) * scale - 0.5;
+                        int left = (int) Math.floor(centre);
+                        float fraction = (float) (centre - left);
+                        index[base] = Math.max(0, Math.min(left, sourceSize - 1));
+                        index[base + 1] = Math.max(0, Math.min(left + 1, sourceSize - 1));
+                        weight[base] = 1 - fraction;
+                        weight[base + 1] = fraction;
+                        break;
+                    }
+                    default: {
+                        double start = o * scale;
+                        double end = Math.min((o + 1) * scale, sourceSize);
+                        int first = (int) Math.floor(start);
+                        for (int t = 0; t < taps; t++) {
+                            int source = Math.min(first + t, sourceSize - 1);
+                            double overlap = Math.min(end, first + t + 1) - Math.max(start, first + t);
+                            index[base + t] = source;
+                            weight[base + t] = overlap > 0 ? (float) (overlap / (end - start)) : 0;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the smallest source index read by an output position.
+         *
+         * @param o output position
+         * @return first source index
+         */
+        int firstIndex(int o) {
+            int first = index[o * taps];
+            for (int t = o * taps + 1; t < (o + 1) * taps; t++) {
+                first = Math.min(first, index[t]);
+            }
+            return first;
+        }
+
+        /**
+         * Returns the largest source index read by an output position.
+         *
+         * @param o output position
+         * @return last source index
+         */
+        int lastIndex(int o) {
+            int last = index[o * taps];
+            for (int t = o * taps + 1; t < (o + 1) * taps; t++) {
+                last = Math.max(last, index[t]);
+            }
+            return last;
+        }
+    }
+}
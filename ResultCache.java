@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ResultCache class keeps converted files in a directory, keyed by the
+ * SHA-256 hash of the input file together with the operation flags and the
+ * output format. Converting the same file with the same operations again
+ * copies the cached output with FileChannel.transferTo instead of parsing and
+ * processing the image. When the cached files exceed the size limit, the
+ * least recently used ones are deleted.
+ *
+ * ImageEditor caches only when asked to with --cache, which keeps the files
+ * in .cache/imageeditor in the user's home directory, or with --cache-dir;
+ * hashing reads the whole input before it is converted, which --mmap and
+ * --stream exist to avoid. --cache-size sets the limit, 256 MB by default.
+ *
+ * Files are added to the cache by an atomic rename, so several processes can
+ * share one cache directory. A directory created by the cache is private to
+ * its owner.
+ *
+ * @author Moksh Thakore
+ */
+public class ResultCache {
+
+    /** Default limit on the total size of the cached files */
+    public static final long DEFAULT_CAPACITY = 256L << 20;
+
+    /** Changed whenever a change to the editor alters its output */
+    private static final String KEY_VERSION = "1";
+
+    /** Extension of cached files */
+    private static final String EXTENSION = ".ppm";
+
+    /** Hexadecimal digits for printing hashes */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Directory holding the cached files */
+    private final Path directory;
+
+    /** Limit on the total size of the cached files */
+    private final long capacity;
+
+    /** Number of conversions served from the cache */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of conversions not found in the cache */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a cache. The directory is created when the first file is added.
+     *
+     * @param directory directory holding the cached files
+     * @param capacity limit on the total size of the cached files in bytes
+     */
+    public ResultCache(Path directory, long capacity) {
+        if (directory == null) throw new IllegalArgumentException("Null directory");
+        if (capacity < 0) throw new IllegalArgumentException("Invalid capacity");
+        this.directory = directory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cache directory used when none is given. It belongs to the
+     * user, since a directory other users can write to would let them plant
+     * results that are then copied to this user's output files.
+     *
+     * @return .cache/imageeditor in the user's home directory
+     */
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".cache", "imageeditor");
+    }
+
+    /**
+     * Computes the cache key for converting a file.
+     *
+     * @param input input file
+     * @param operationFlags operation flags in the order applied
+     * @param binaryOutput true for P6 output, false for P3
+     * @return hexadecimal key
+     * @throws IOException if the input file cannot be read
+     */
+    public String key(Path input, List<String> operationFlags, boolean binaryOutput) throws IOException {
+        return key(input, operationFlags, binaryOutput ? "P6" : "P3");
+    }
+
+    /**
+     * Computes the cache key for converting a file to a named output format.
+     *
+     * @param input input file
+     * @param operationFlags operation flags in the order applied
+     * @param outputFormat P3, P6 or PXB
+     * @return hexadecimal key
+     * @throws IOException if the input file cannot be read
+     */
+    public String key(Path input, List<String> operationFlags, String outputFormat) throws IOException {
+        if (outputFormat == null) throw new IllegalArgumentException("Null format");
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        // The file hash is fixed length, so the flags that follow cannot be confused with it
+        StringBuilder suffix = new StringBuilder(KEY_VERSION).append(outputFormat);
+        for (String flag : operationFlags) {
+            suffix.append('\0').append(flag);
+        }
+        byte[] fileHash = digest.digest();
+        digest.update(fileHash);
+        digest.update(suffix.toString().getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Copies the cached output for a key to a file, replacing its contents.
+     *
+     * @param key key of the conversion
+     * @param output file to write
+     * @return true if the output was cached and has been written
+     * @throws IOException if the output file cannot be written
+     */
+    public boolean copyTo(String key, Path output) throws IOException {
+        Path cached = directory.resolve(key + EXTENSION);
+        FileChannel source;
+        try {
+            source = FileChannel.open(cached, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+        try (source;
+             FileChannel target = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(source, target);
+        }
+        touch(cached);
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adds a converted file to the cache and evicts the least recently used
+     * files beyond the size limit.
+     *
+     * @param key key of the conversion
+     * @param output converted file
+     * @throws IOException if the file cannot be added
+     */
+    public void store(String key, Path output) throws IOException {
+        if (Files.size(output) > capacity) return;
+        createDirectory();
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (FileChannel source = FileChannel.open(output, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                transfer(source, target);
+            }
+            Files.move(temporary, directory.resolve(key + EXTENSION),
+                       StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    /**
+     * Returns the number of conversions served from the cache.
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of conversions not found in the cache.
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns a one-line summary of the cache statistics.
+     *
+     * @return hits and misses
+     */
+    @Override
+    public String toString() {
+        return "Result cache: " + hits + " hits, " + misses + " misses";
+    }
+
+    /**
+     * Creates the cache directory if it does not exist, readable and
+     * writable only by its owner where the file system has POSIX permissions.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    private void createDirectory() throws IOException {
+        if (Files.isDirectory(directory)) return;
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory,
+                                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Deletes the least recently used cached files until the rest fit
+     * within the size limit.
+     *
+     * @throws IOException if the cache directory cannot be listed
+     */
+    private synchronized void evict() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, FileTime> used = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path entry : entries) {
+                try {
+                    used.put(entry, Files.getLastModifiedTime(entry));
+                    total += Files.size(entry);
+                    files.add(entry);
+                } catch (NoSuchFileException e) {
+                    // Evicted by another process
+                }
+            }
+        }
+        if (total <= capacity) return;
+
+        files.sort(Comparator.comparing(used::get));
+        for (int i = 0; i < files.size() && total > capacity; i++) {
+            try {
+                total -= Files.size(files.get(i));
+                Files.delete(files.get(i));
+            } catch (NoSuchFileException e) {
+                // Evicted by another process
+            }
+        }
+    }
+
+    /**
+     * Marks a cached file as recently used.
+     *
+     * @param cached cached file
+     */
+    private static void touch(Path cached) {
+        try {
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects the eviction order
+        }
+    }
+
+    /**
+     * Copies the whole of one channel to another.
+     *
+     * @param source channel to read from its start
+     * @param target channel to write at its current position
+     * @throws IOException if a channel cannot be read or written
+     */
+    private static void transfer(FileChannel source, FileChannel target) throws IOException {
+        long size = source.size();
+        for (long position = 0; position < size; ) {
+            position += source.transferTo(position, size - position, target);
+        }
+    }
+
+    /**
+     * Returns a SHA-256 digest.
+     *
+     * @return new digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
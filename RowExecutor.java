@@ -0,0 +1,227 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The RowExecutor class applies a PixelOperation, or any other work done a
+ * band of rows at a time, to every row of a PixelBuffer. Images with fewer
+ * pixels than the threshold, or executors with a parallelism of 1, run on
+ * the calling thread; larger images are split into bands of whole rows that
+ * run on a ForkJoinPool. Because every pixel is transformed independently,
+ * the result is identical either way.
+ *
+ * @author Moksh Thakore
+ */
+public class RowExecutor {
+
+    /** Default number of pixels below which an image is processed serially */
+    public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+    /** Executor that always runs on the calling thread */
+    public static final RowExecutor SERIAL = new RowExecutor(1, DEFAULT_THRESHOLD);
+
+    /** Pools shared between executors with the same parallelism */
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    /** Maximum number of threads working on one image */
+    private final int parallelism;
+
+    /** Number of pixels below which an image is processed serially */
+    private final int threshold;
+
+    /**
+     * Constructs an executor.
+     *
+     * @param parallelism maximum number of threads working on one image
+     * @param threshold number of pixels below which an image is processed serially
+     */
+    public RowExecutor(int parallelism, int threshold) {
+        if (parallelism <= 0) throw new IllegalArgumentException("Invalid parallelism");
+        if (threshold < 0) throw new IllegalArgumentException("Invalid threshold");
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Constructs an executor using every available processor.
+     *
+     * @return parallel executor with the default threshold
+     */
+    public static RowExecutor allProcessors() {
+        return new RowExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Returns the maximum number of threads working on one image.
+     *
+     * @return parallelism level
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the number of pixels below which an image is processed serially.
+     *
+     * @return threshold in pixels
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Applies an operation to every row of an image.
+     *
+     * @param image packed RGB image
+     * @param operation operation to apply
+     */
+    public void execute(PixelBuffer image, PixelOperation operation) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (operation == null) throw new IllegalArgumentException("Null operation");
+
+        if (isSerial(image)) {
+            // Skip creating the band action, so the serial path allocates nothing
+            applyRows(image, operation, 0, image.getHeight());
+            return;
+        }
+        forEachBand(image, (fromRow, toRow) -> applyRows(image, operation, fromRow, toRow));
+    }
+
+    /**
+     * Runs an action over bands of whole rows that together cover an image,
+     * in parallel when the image is large enough. The action must only write
+     * to the rows it is given.
+     *
+     * @param image image whose rows are split into bands
+     * @param action action to run for each band
+     */
+    public void forEachBand(PixelBuffer image, BandAction action) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (action == null) throw new IllegalArgumentException("Null operation");
+
+        if (isSerial(image)) {
+            action.apply(0, image.getHeight());
+            return;
+        }
+
+        // Aim for a few bands per thread so uneven scheduling evens out
+        int bandRows = Math.max(1, image.getHeight() / (parallelism * 4));
+        ForkJoinPool pool = POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+        pool.invoke(new BandTask(action, 0, image.getHeight(), bandRows));
+    }
+
+    /**
+     * Runs an action over independent tasks numbered 0 to count - 1, in
+     * parallel unless the executor is serial. Each call of the action is
+     * given a range of one task, except on a serial executor where it is
+     * given every task at once. The threshold does not apply, since a task
+     * is assumed to be worth a thread.
+     *
+     * @param count number of tasks
+     * @param action action to run for each range of tasks
+     */
+    public void forEachTask(int count, BandAction action) {
+        if (action == null) throw new IllegalArgumentException("Null operation");
+        if (count <= 0) return;
+
+        if (parallelism == 1 || count == 1) {
+            action.apply(0, count);
+            return;
+        }
+        ForkJoinPool pool = POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+        pool.invoke(new BandTask(action, 0, count, 1));
+    }
+
+    /**
+     * Tests whether an image is processed on the calling thread.
+     *
+     * @param image image to process
+     * @return true if the executor is serial or the image is small or one row high
+     */
+    private boolean isSerial(PixelBuffer image) {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        return parallelism == 1 || pixels < threshold || image.getHeight() == 1;
+    }
+
+    /**
+     * Applies an operation to a range of rows on the calling thread.
+     *
+     * @param image packed RGB image
+     * @param operation operation to apply
+     * @param fromRow first row, inclusive
+     * @param toRow last row, exclusive
+     */
+    static void applyRows(PixelBuffer image, PixelOperation operation, int fromRow, int toRow) {
+        byte[] data = image.getData();
+        int rowLength = image.getRowLength();
+        if (image.getStride() == rowLength) {
+            operation.apply(data, image.rowOffset(fromRow), (toRow - fromRow) * rowLength);
+            return;
+        }
+        for (int row = fromRow; row < toRow; row++) {
+            operation.apply(data, image.rowOffset(row), rowLength);
+        }
+    }
+
+    /**
+     * Work done on one band of rows.
+     */
+    public interface BandAction {
+
+        /**
+         * Processes a band of rows.
+         *
+         * @param fromRow first row, inclusive
+         * @param toRow last row, exclusive
+         */
+        void apply(int fromRow, int toRow);
+    }
+
+    /**
+     * Fork/join task that splits a range of rows in half until it is no
+     * larger than one band.
+     */
+    private static class BandTask extends RecursiveAction {
+
+        /** Serialization version */
+        private static final long serialVersionUID = 1L;
+
+        /** Work done on each band */
+        private final transient BandAction action;
+
+        /** First row, inclusive */
+        private final int fromRow;
+
+        /** Last row, exclusive */
+        private final int toRow;
+
+        /** Maximum number of rows processed without splitting */
+        private final int bandRows;
+
+        /**
+         * Constructs a task for a range of rows.
+         *
+         * @param action work done on each band
+         * @param fromRow first row, inclusive
+         * @param toRow last row, exclusive
+         * @param bandRows maximum number of rows processed without splitting
+         */
+        BandTask(BandAction action, int fromRow, int toRow, int bandRows) {
+            this.action = action;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= bandRows) {
+                action.apply(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new BandTask(action, fromRow, middle, bandRows),
+                      new BandTask(action, middle, toRow, bandRows));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The StreamingImageEditor class applies a PixelOperation to a PPM file a
+ * band of rows at a time. Reading, transforming and writing run on three
+ * threads connected by bounded queues, and a fixed set of band buffers is
+ * recycled between them, so peak memory grows with the image width but not
+ * its height and output starts as soon as the first band is read.
+ *
+ * The header is read before anything is written, but if the input turns out
+ * to be truncated or invalid part way through, the rows before the bad data
+ * have already been written, so callers writing to a file should write to a
+ * temporary one and keep it only on success.
+ *
+ * @author Moksh Thakore
+ */
+public class StreamingImageEditor {
+
+    /** Default number of rows in a band */
+    public static final int DEFAULT_BAND_ROWS = 16;
+
+    /** Number of band buffers shared by the pipeline stages */
+    private static final int BANDS_IN_FLIGHT = 4;
+
+    /** Band that marks the end of the stream */
+    private static final Band END = new Band(null);
+
+    /**
+     * Reads a PPM file, applies an operation and writes the result, one band
+     * of rows at a time.
+     *
+     * @param in InputStream for the input PPM file
+     * @param out OutputStream for the output PPM file
+     * @param operation operation to apply
+     * @param binaryOutput true to write P6, false to write P3
+     * @param bandRows number of rows in a band
+     * @return true on success, false if the input is invalid
+     * @throws IOException if a stream cannot be read or written
+     */
+    public static boolean process(InputStream in, OutputStream out, PixelOperation operation,
+                                  boolean binaryOutput, int bandRows) throws IOException {
+        if (in == null || out == null) throw new IllegalArgumentException("Null file");
+        if (operation == null) throw new IllegalArgumentException("Null operation");
+        if (bandRows <= 0) throw new IllegalArgumentException("Invalid band size");
+
+        PpmTokenizer tokens = new PpmTokenizer(in);
+        PpmHeader header = PpmHeader.read(tokens);
+        if (header == null) return false;
+
+        int rowsPerBand = Math.min(bandRows, header.getHeight());
+        BlockingQueue<Band> free = new ArrayBlockingQueue<>(BANDS_IN_FLIGHT);
+        BlockingQueue<Band> read = new ArrayBlockingQueue<>(BANDS_IN_FLIGHT + 1);
+        BlockingQueue<Band> transformed = new ArrayBlockingQueue<>(BANDS_IN_FLIGHT + 1);
+        for (int i = 0; i < BANDS_IN_FLIGHT; i++) {
+            free.add(new Band(new PixelBuffer(header.getWidth(), rowsPerBand)));
+        }
+
+        Stage transformer = new Stage(read, transformed, true) {
+            @Override
+            void handle(Band band) {
+                RowExecutor.applyRows(band.image, operation, 0, band.rows);
+            }
+        };
+        Stage writer = new Stage(transformed, free, false) {
+            private final PpmWriter encoder = new PpmWriter(out, binaryOutput);
+
+            @Override
+            void start() throws IOException {
+                encoder.writeHeader(header.getWidth(), header.getHeight());
+            }
+
+            @Override
+            void handle(Band band) throws IOException {
+                encoder.writeRows(band.image, 0, band.rows);
+            }
+
+            @Override
+            void finish() throws IOException {
+                encoder.flush();
+            }
+        };
+
+        Thread transformThread = new Thread(transformer, "ppm-transform");
+        Thread writeThread = new Thread(writer, "ppm-write");
+        transformThread.setDaemon(true);
+        writeThread.setDaemon(true);
+        transformThread.start();
+        writeThread.start();
+
+        boolean valid = true;
+        IOException readFailure = null;
+        try {
+            try {
+                for (int row = 0; row < header.getHeight(); row += rowsPerBand) {
+                    Band band = free.take();
+                    band.rows = Math.min(rowsPerBand, header.getHeight() - row);
+                    if (!ImageEditor.readRows(tokens, header, band.image, band.rows)) {
+                        valid = false;
+                        break;
+                    }
+                    read.put(band);
+                }
+            } catch (IOException e) {
+                readFailure = e;
+            } finally {
+                // Even a reader that dies with an Error ends the other stages
+                read.put(END);
+            }
+            transformThread.join();
+            writeThread.join();
+        } catch (InterruptedException e) {
+            transformThread.interrupt();
+            writeThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming");
+        }
+
+        if (readFailure != null) throw readFailure;
+        transformer.rethrow();
+        writer.rethrow();
+        return valid;
+    }
+
+    /**
+     * A buffer holding up to a fixed number of rows, and the number of rows
+     * currently in use.
+     */
+    private static class Band {
+
+        /** Rows of the band */
+        final PixelBuffer image;
+
+        /** Number of rows in use */
+        int rows;
+
+        /**
+         * Constructs a band.
+         *
+         * @param image rows of the band
+         */
+        Band(PixelBuffer image) {
+            this.image = image;
+        }
+    }
+
+    /**
+     * One pipeline stage, which takes bands from one queue, handles them and
+     * passes them to the next queue until the end marker arrives. After a
+     * failure the stage keeps passing bands along without handling them, so
+     * the other stages never block on a full or empty queue.
+     */
+    private abstract static class Stage implements Runnable {
+
+        /** Queue of bands to handle */
+        private final BlockingQueue<Band> input;
+
+        /** Queue of handled bands */
+        private final BlockingQueue<Band> output;
+
+        /** Whether the end marker is passed on to the output queue */
+        private final boolean forwardEnd;
+
+        /** First exception or error thrown by the stage, or null */
+        private volatile Throwable failure;
+
+        /**
+         * Constructs a stage.
+         *
+         * @param input queue of bands to handle
+         * @param output queue of handled bands
+         * @param forwardEnd whether the end marker is passed on to the output queue
+         */
+        Stage(BlockingQueue<Band> input, BlockingQueue<Band> output, boolean forwardEnd) {
+            this.input = input;
+            this.output = output;
+            this.forwardEnd = forwardEnd;
+        }
+
+        /**
+         * Throws the first exception or error thrown by the stage, if any.
+         *
+         * @throws IOException if the stage failed with an IOException
+         */
+        void rethrow() throws IOException {
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+        }
+
+        /**
+         * Called once before the first band.
+         *
+         * @throws IOException if the stage fails
+         */
+        void start() throws IOException {
+        }
+
+        /**
+         * Handles one band.
+         *
+         * @param band band to handle
+         * @throws IOException if the stage fails
+         */
+        abstract void handle(Band band) throws IOException;
+
+        /**
+         * Called once after the last band.
+         *
+         * @throws IOException if the stage fails
+         */
+        void finish() throws IOException {
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    start();
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                while (true) {
+                    Band band = input.take();
+                    if (band == END) break;
+                    if (failure == null) {
+                        try {
+                            handle(band);
+                        } catch (Throwable e) {
+                            failure = e;
+                        }
+                    }
+                    output.put(band);
+                }
+                if (failure == null) {
+                    try {
+                        finish();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                }
+                if (forwardEnd) output.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
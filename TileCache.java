@@ -0,0 +1,387 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The TileCache class applies a Convolution to an image as a grid of square
+ * tiles and remembers the result of each tile, keyed by the convolution and
+ * a hash of the samples the tile reads: the tile itself and a border as wide
+ * as the radius of the kernel. When the same convolution is applied to
+ * images that differ in only a few regions, such as frames from a mostly
+ * static camera, unchanged tiles are copied from the cache and only changed
+ * tiles are filtered. A hit costs a copy, a hash and a comparison of the
+ * samples read, which is much less than convolving them; a per-pixel
+ * operation costs less than that, so it is never cached. A hit is confirmed
+ * by comparing the stored input samples, so a hash collision can never
+ * return the wrong pixels.
+ *
+ * Rows of tiles are processed in parallel on a RowExecutor. Entries are
+ * evicted least recently used first once the cached samples exceed the
+ * memory budget. The cache is safe for use by many threads.
+ *
+ * @author Moksh Thakore
+ */
+public class TileCache {
+
+    /** Default width and height of a tile in pixels */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /** Approximate bytes used by an entry besides its samples */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /** View of a byte array as little-endian longs, for hashing 8 samples at a time */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** Width and height of a tile in pixels */
+    private final int tileSize;
+
+    /** Maximum number of bytes held by the cache */
+    private final long capacity;
+
+    /** Cached tiles, least recently used first */
+    private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Bytes currently held by the cache */
+    private long size;
+
+    /** Number of tiles found in the cache */
+    private long hits;
+
+    /** Number of tiles filtered */
+    private long misses;
+
+    /** Number of tiles evicted */
+    private long evictions;
+
+    /**
+     * Constructs a cache of DEFAULT_TILE_SIZE tiles.
+     *
+     * @param capacity maximum number of bytes held by the cache
+     */
+    public TileCache(long capacity) {
+        this(capacity, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param capacity maximum number of bytes held by the cache
+     * @param tileSize width and height of a tile in pixels
+     */
+    public TileCache(long capacity, int tileSize) {
+        if (capacity < 0) throw new IllegalArgumentException("Invalid capacity");
+        if (tileSize <= 0 || tileSize > 1024) throw new IllegalArgumentException("Invalid tile size");
+        this.capacity = capacity;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Returns an operation that applies a convolution through this cache,
+     * for use as a stage of an ImagePipeline.
+     *
+     * @param convolution convolution to apply
+     * @return operation giving the same result as the convolution
+     */
+    public ImageOperation cached(Convolution convolution) {
+        if (convolution == null) throw new IllegalArgumentException("Null operation");
+        return (image, executor) -> apply(image, convolution, executor);
+    }
+
+    /**
+     * Applies a convolution to every tile of an image, taking unchanged tiles
+     * from the cache. Each tile is filtered together with the border it reads,
+     * which is clipped at the edges of the image, so the result is the same
+     * as filtering the whole image.
+     *
+     * @param image packed RGB image, which is not modified
+     * @param convolution convolution to apply
+     * @param executor executor whose threads process the rows of tiles
+     * @return filtered image
+     */
+    public PixelBuffer apply(PixelBuffer image, Convolution convolution, RowExecutor executor) {
+        if (image == null) throw new IllegalArgumentException("Null image");
+        if (convolution == null) throw new IllegalArgumentException("Null operation");
+        if (executor == null) throw new IllegalArgumentException("Null executor");
+
+        PixelBuffer result = new PixelBuffer(image.getWidth(), image.getHeight());
+        int radius = convolution.getRadius();
+        int tileRows = (image.getHeight() + tileSize - 1) / tileSize;
+        executor.forEachTask(tileRows, (from, to) -> {
+            PixelBuffer region = new PixelBuffer(1, 1);
+            for (int tileRow = from; tileRow < to; tileRow++) {
+                int top = tileRow * tileSize;
+                int rows = Math.min(tileSize, image.getHeight() - top);
+                for (int left = 0; left < image.getWidth(); left += tileSize) {
+                    int columns = Math.min(tileSize, image.getWidth() - left);
+                    applyTile(image, convolution, radius, top, left, rows, columns, region, result);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Filters one tile, or copies it from the cache.
+     *
+     * @param image source image
+     * @param convolution convolution to apply
+     * @param radius largest distance the convolution reads from a pixel
+     * @param top first row of the tile
+     * @param left first column of the tile
+     * @param rows number of rows in the tile
+     * @param columns number of columns in the tile
+     * @param region scratch image reshaped to hold the samples the tile reads
+     * @param result image receiving the filtered tile
+     */
+    private void applyTile(PixelBuffer image, Convolution convolution, int radius, int top, int left,
+                           int rows, int columns, PixelBuffer region, PixelBuffer result) {
+        // Gather the tile and its border into one contiguous run of samples
+        int regionTop = Math.max(0, top - radius);
+        int regionLeft = Math.max(0, left - radius);
+        int regionHeight = Math.min(image.getHeight(), top + rows + radius) - regionTop;
+        int regionWidth = Math.min(image.getWidth(), left + columns + radius) - regionLeft;
+        region.reshape(regionWidth, regionHeight);
+        int regionLength = region.getRowLength();
+        int length = regionHeight * regionLength;
+        byte[] samples = region.getData();
+        for (int row = 0; row < regionHeight; row++) {
+            System.arraycopy(image.getData(), image.rowOffset(regionTop + row) + regionLeft * 3,
+                             samples, row * regionLength, regionLength);
+        }
+
+        // The tile's place in the region tells which of its sides are edges of the image
+        int rowLength = columns * 3;
+        Key key = new Key(convolution, regionWidth, top - regionTop, left - regionLeft, columns, rows,
+                          hash(samples, length));
+        byte[] output = lookup(key, samples, length);
+        if (output == null) {
+            byte[] input = Arrays.copyOf(samples, length);
+            PixelBuffer filtered = convolution.apply(region, RowExecutor.SERIAL);
+            output = new byte[rows * rowLength];
+            int offset = filtered.rowOffset(top - regionTop) + (left - regionLeft) * 3;
+            for (int row = 0; row < rows; row++, offset += filtered.getStride()) {
+                System.arraycopy(filtered.getData(), offset, output, row * rowLength, rowLength);
+            }
+            store(key, new Tile(input, output));
+        }
+
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(output, row * rowLength, result.getData(), result.rowOffset(top + row) + left * 3,
+                             rowLength);
+        }
+    }
+
+    /**
+     * Returns the cached result for a tile.
+     *
+     * @param key convolution, shape and hash of the tile
+     * @param samples samples of the region the tile reads
+     * @param length number of samples
+     * @return transformed samples, or null if the tile is not cached
+     */
+    private synchronized byte[] lookup(Key key, byte[] samples, int length) {
+        Tile tile = tiles.get(key);
+        if (tile != null && Arrays.equals(tile.input, 0, tile.input.length, samples, 0, length)) {
+            hits++;
+            return tile.output;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Adds a transformed tile and evicts the least recently used tiles that
+     * no longer fit.
+     *
+     * @param key convolution, shape and hash of the tile
+     * @param tile samples read and filtered samples
+     */
+    private synchronized void store(Key key, Tile tile) {
+        long weight = tile.weight();
+        if (weight > capacity) return;
+        Tile previous = tiles.put(key, tile);
+        if (previous != null) size -= previous.weight();
+        size += weight;
+        Iterator<Tile> eldest = tiles.values().iterator();
+        while (size > capacity) {
+            size -= eldest.next().weight();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes every tile. The statistics are kept.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of tiles found in the cache.
+     *
+     * @return number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of tiles that were not in the cache and were filtered.
+     *
+     * @return number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of tiles evicted to stay within the memory budget.
+     *
+     * @return number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the cache.
+     *
+     * @return bytes used
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns a one-line summary of the cache statistics.
+     *
+     * @return hits, misses, evictions and size
+     */
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return "Tile cache: " + hits + " hits, " + misses + " misses ("
+               + (lookups == 0 ? 0 : hits * 100 / lookups) + "% hit rate), "
+               + evictions + " evictions, " + size / 1024 + " KB used";
+    }
+
+    /**
+     * Computes a 64-bit hash of a run of samples.
+     *
+     * @param samples samples to hash
+     * @param length number of samples
+     * @return hash of samples[0] to samples[length - 1]
+     */
+    private static long hash(byte[] samples, int length) {
+        long h = length;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            h = Long.rotateLeft(h ^ ((long) LONGS.get(samples, i) * 0x9E3779B97F4A7C15L), 27) * 5 + 0x52DCE729;
+        }
+        for (; i < length; i++) {
+            h = (h ^ (samples[i] & 0xFF)) * 0x100000001B3L;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Identifies a tile by the convolution applied, the shape of the tile
+     * and of the region it reads, and the hash of that region. Convolutions
+     * are compared by identity.
+     */
+    private static final class Key {
+
+        /** Convolution applied to the tile */
+        final Convolution convolution;
+
+        /** Width of the region read, in pixels */
+        final int regionWidth;
+
+        /** Row of the tile within the region */
+        final int top;
+
+        /** Column of the tile within the region */
+        final int left;
+
+        /** Width of the tile in pixels */
+        final int width;
+
+        /** Height of the tile in pixels */
+        final int height;
+
+        /** Hash of the samples of the region */
+        final long hash;
+
+        /**
+         * Constructs a key.
+         *
+         * @param convolution convolution applied to the tile
+         * @param regionWidth width of the region read, in pixels
+         * @param top row of the tile within the region
+         * @param left column of the tile within the region
+         * @param width width of the tile in pixels
+         * @param height height of the tile in pixels
+         * @param hash hash of the samples of the region
+         */
+        Key(Convolution convolution, int regionWidth, int top, int left, int width, int height, long hash) {
+            this.convolution = convolution;
+            this.regionWidth = regionWidth;
+            this.top = top;
+            this.left = left;
+            this.width = width;
+            this.height = height;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return convolution == key.convolution && regionWidth == key.regionWidth && top == key.top
+                   && left == key.left && width == key.width && height == key.height && hash == key.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash) * 31 + System.identityHashCode(convolution);
+        }
+    }
+
+    /**
+     * The input and transformed samples of a cached tile.
+     */
+    private static final class Tile {
+
+        /** Samples of the region the tile reads */
+        final byte[] input;
+
+        /** Samples of the filtered tile */
+        final byte[] output;
+
+        /**
+         * Constructs a tile.
+         *
+         * @param input samples of the region the tile reads
+         * @param output samples of the filtered tile
+         */
+        Tile(byte[] input, byte[] output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        /**
+         * Returns the approximate number of bytes the tile occupies.
+         *
+         * @return bytes used
+         */
+        long weight() {
+            return input.length + output.length + ENTRY_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The VectorSupport class selects SIMD kernels at run time. When the
+ * optional VectorKernels class is on the class path and the
+ * jdk.incubator.vector module is present, its kernels are used; otherwise,
+ * or when the system property imageeditor.vector is set to false, the
+ * scalar kernels are used. Both give identical results.
+ *
+ * @author Moksh Thakore
+ */
+final class VectorSupport {
+
+    /** Vectorized kernels by name, empty when the Vector API is unavailable */
+    private static final Map<String, PixelOperation> KERNELS = load();
+
+    /**
+     * Prevents instantiation.
+     */
+    private VectorSupport() {
+    }
+
+    /**
+     * Returns whether vectorized kernels are in use.
+     *
+     * @return true if the Vector API kernels were loaded
+     */
+    static boolean isAvailable() {
+        return !KERNELS.isEmpty();
+    }
+
+    /**
+     * Returns the vectorized kernel with the given name, or a fallback.
+     *
+     * @param name kernel name
+     * @param fallback scalar kernel used when no vectorized kernel is available
+     * @return the kernel to use
+     */
+    static PixelOperation kernel(String name, PixelOperation fallback) {
+        return KERNELS.getOrDefault(name, fallback);
+    }
+
+    /**
+     * Loads the vectorized kernels by reflection.
+     *
+     * @return kernels by name, or an empty map if they cannot be loaded
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, PixelOperation> load() {
+        if (!Boolean.parseBoolean(System.getProperty("imageeditor.vector", "true"))
+            || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            Class<?> kernels = Class.forName("VectorKernels");
+            return (Map<String, PixelOperation>) kernels.getMethod("kernels").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for each stage of ImageEditor - parsing, the three
+ * operations and writing - and for the whole parse, transform, write path.
+ * The parallel file decoder and encoder are measured next to the serial
+ * stream parser and writer, with 1 to 8 threads.
+ * Synthetic random images are generated once per trial in P3 and P6 form at
+ * sizes from a single pixel up to 8K UHD.
+ *
+ * Besides the JMH score, every benchmark reports two throughput counters:
+ * "bytes" is the number of encoded file bytes (parse, write, end to end) or
+ * raster bytes (operations) processed per second, and "pixels" is the number
+ * of pixels processed per second. Divide by 1e6 for MB/s and megapixels/s.
+ * Run with -prof gc to add the allocation rate.
+ *
+ * JMH does not allow benchmarks in the default package, so the benchmarks
+ * reach the ImageEditor API through method handles, which the JIT compiles
+ * to direct calls. To build and run, with the JMH core and annotation
+ * processor jars on the class path:
+ *
+ *     javac -d bin *.java
+ *     javac -cp bin:$JMH_CP -d bench-bin bench/ImageEditorBenchmark.java
+ *     java -cp bin:bench-bin:$JMH_CP org.openjdk.jmh.Main -prof gc ImageEditorBenchmark
+ *
+ * @author Moksh Thakore
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageEditorBenchmark {
+
+    /** ImageEditor.readPixelBuffer(InputStream) returning Object */
+    private static final MethodHandle READ;
+
+    /** ImageEditor.invertImage(PixelBuffer) taking Object */
+    private static final MethodHandle INVERT;
+
+    /** ImageEditor.highContrastImage(PixelBuffer) taking Object */
+    private static final MethodHandle HIGH_CONTRAST;
+
+    /** ImageEditor.greyScaleImage(PixelBuffer) taking Object */
+    private static final MethodHandle GREY_SCALE;
+
+    /** ImageEditor.writePPM(OutputStream, PixelBuffer, boolean) taking Object */
+    private static final MethodHandle WRITE;
+
+    /** ParallelPpmDecoder.read(Path, RowExecutor) taking and returning Object */
+    private static final MethodHandle PARALLEL_READ;
+
+    /** ParallelPpmEncoder.write(Path, PixelBuffer, boolean, RowExecutor) taking Object */
+    private static final MethodHandle PARALLEL_WRITE;
+
+    /** RowExecutor(int, int) returning Object */
+    private static final MethodHandle EXECUTOR;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> editor = Class.forName("ImageEditor");
+            Class<?> image = Class.forName("PixelBuffer");
+            Class<?> executor = Class.forName("RowExecutor");
+            READ = lookup.findStatic(editor, "readPixelBuffer", MethodType.methodType(image, InputStream.class))
+                         .asType(MethodType.methodType(Object.class, InputStream.class));
+            MethodType operation = MethodType.methodType(void.class, image);
+            MethodType erased = MethodType.methodType(void.class, Object.class);
+            INVERT = lookup.findStatic(editor, "invertImage", operation).asType(erased);
+            HIGH_CONTRAST = lookup.findStatic(editor, "highContrastImage", operation).asType(erased);
+            GREY_SCALE = lookup.findStatic(editor, "greyScaleImage", operation).asType(erased);
+            WRITE = lookup.findStatic(editor, "writePPM",
+                                      MethodType.methodType(void.class, OutputStream.class, image, boolean.class))
+                          .asType(MethodType.methodType(void.class, OutputStream.class, Object.class, boolean.class));
+            PARALLEL_READ = lookup.findStatic(Class.forName("ParallelPpmDecoder"), "read",
+                                              MethodType.methodType(image, Path.class, executor))
+                                  .asType(MethodType.methodType(Object.class, Path.class, Object.class));
+            PARALLEL_WRITE = lookup.findStatic(Class.forName("ParallelPpmEncoder"), "write",
+                                               MethodType.methodType(void.class, Path.class, image, boolean.class,
+                                                                     executor))
+                                   .asType(MethodType.methodType(void.class, Path.class, Object.class,
+                                                                 boolean.class, Object.class));
+            EXECUTOR = lookup.findConstructor(executor, MethodType.methodType(void.class, int.class, int.class))
+                             .asType(MethodType.methodType(Object.class, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Synthetic input image, shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+
+        /** Image size as width x height */
+        @Param({"1x1", "640x480", "1920x1080", "7680x4320"})
+        public String size;
+
+        /** Encoding of the input file and of the written output */
+        @Param({"P3", "P6"})
+        public String format;
+
+        /** Number of pixels in the image */
+        long pixels;
+
+        /** Encoded input file */
+        byte[] encoded;
+
+        /** Decoded image that the operations and writers work on */
+        Object image;
+
+        /**
+         * Generates a random image and encodes it.
+         *
+         * @throws Throwable if the ImageEditor API fails
+         */
+        @Setup(Level.Trial)
+        public void generate() throws Throwable {
+            int x = size.indexOf('x');
+            int width = Integer.parseInt(size.substring(0, x));
+            int height = Integer.parseInt(size.substring(x + 1));
+            pixels = (long) width * height;
+
+            byte[] raster = new byte[width * height * 3];
+            new Random(42).nextBytes(raster);
+            ByteArrayOutputStream binary = new ByteArrayOutputStream(raster.length + 32);
+            binary.write(("P6\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+            binary.write(raster);
+            image = READ.invokeExact((InputStream) new ByteArrayInputStream(binary.toByteArray()));
+            encoded = encode(image, format);
+        }
+
+        /**
+         * Encodes a decoded image in a format.
+         *
+         * @param image decoded image
+         * @param format P3 or P6
+         * @return encoded file
+         * @throws Throwable if the ImageEditor API fails
+         */
+        static byte[] encode(Object image, String format) throws Throwable {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(out, image, format);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Input and output files and the executor for the parallel decoder and
+     * encoder, shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Parallel {
+
+        /** Number of threads decoding or encoding one image */
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        /** RowExecutor with no threshold, so even small images are split */
+        Object executor;
+
+        /** File holding the encoded input */
+        Path inputFile;
+
+        /** File the encoder replaces */
+        Path outputFile;
+
+        /**
+         * Writes the encoded input to a file and creates the executor.
+         *
+         * @param input benchmark input
+         * @throws Throwable if the files or the ImageEditor API fail
+         */
+        @Setup(Level.Trial)
+        public void create(Input input) throws Throwable {
+            executor = EXECUTOR.invokeExact(threads, 0);
+            inputFile = Files.createTempFile("bench", ".ppm");
+            outputFile = Files.createTempFile("bench-out", ".ppm");
+            Files.write(inputFile, input.encoded);
+        }
+
+        /**
+         * Deletes the files.
+         *
+         * @throws IOException if a file cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Files.deleteIfExists(inputFile);
+            Files.deleteIfExists(outputFile);
+        }
+    }
+
+    /**
+     * Throughput counters reported alongside the JMH score.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        /** Bytes processed */
+        public long bytes;
+
+        /** Pixels processed */
+        public long pixels;
+
+        /**
+         * Resets the counters before each iteration.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            pixels = 0;
+        }
+    }
+
+    /**
+     * Benchmarks parsing an encoded file into a PixelBuffer.
+     *
+     * @param input benchmark input
+     * @param counters throughput counters
+     * @return decoded image
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public Object parse(Input input, Counters counters) throws Throwable {
+        Object image = READ.invokeExact((InputStream) new ByteArrayInputStream(input.encoded));
+        counters.bytes += input.encoded.length;
+        counters.pixels += input.pixels;
+        return image;
+    }
+
+    /**
+     * Benchmarks invert on a decoded image.
+     *
+     * @param input benchmark input
+     * @param counters throughput counters
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public void invert(Input input, Counters counters) throws Throwable {
+        INVERT.invokeExact(input.image);
+        count(input, counters);
+    }
+
+    /**
+     * Benchmarks highContrast on a decoded image.
+     *
+     * @param input benchmark input
+     * @param counters throughput counters
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public void highContrast(Input input, Counters counters) throws Throwable {
+        HIGH_CONTRAST.invokeExact(input.image);
+        count(input, counters);
+    }
+
+    /**
+     * Benchmarks greyScale on a decoded image.
+     *
+     * @param input benchmark input
+     * @param counters throughput counters
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public void greyScale(Input input, Counters counters) throws Throwable {
+        GREY_SCALE.invokeExact(input.image);
+        count(input, counters);
+    }
+
+    /**
+     * Benchmarks writing a decoded image in the input's format.
+     *
+     * @param input benchmark input
+     * @param counters throughput counters
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public void write(Input input, Counters counters) throws Throwable {
+        write(OutputStream.nullOutputStream(), input.image, input.format);
+        counters.bytes += input.encoded.length;
+        counters.pixels += input.pixels;
+    }
+
+    /**
+     * Benchmarks decoding the input file with ParallelPpmDecoder.
+     *
+     * @param input benchmark input
+     * @param parallel files and executor
+     * @param counters throughput counters
+     * @return decoded image
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public Object parallelParse(Input input, Parallel parallel, Counters counters) throws Throwable {
+        Object image = PARALLEL_READ.invokeExact(parallel.inputFile, parallel.executor);
+        counters.bytes += input.encoded.length;
+        counters.pixels += input.pixels;
+        return image;
+    }
+
+    /**
+     * Benchmarks writing a decoded image to a file in the input's format with
+     * ParallelPpmEncoder.
+     *
+     * @param input benchmark input
+     * @param parallel files and executor
+     * @param counters throughput counters
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public void parallelWrite(Input input, Parallel parallel, Counters counters) throws Throwable {
+        PARALLEL_WRITE.invokeExact(parallel.outputFile, input.image, input.format.equals("P6"),
+                                   parallel.executor);
+        counters.bytes += input.encoded.length;
+        counters.pixels += input.pixels;
+    }
+
+    /**
+     * Benchmarks the whole path: parse, greyScale, then write.
+     *
+     * @param input benchmark input
+     * @param counters throughput counters
+     * @throws Throwable if the ImageEditor API fails
+     */
+    @Benchmark
+    public void endToEnd(Input input, Counters counters) throws Throwable {
+        Object image = READ.invokeExact((InputStream) new ByteArrayInputStream(input.encoded));
+        GREY_SCALE.invokeExact(image);
+        write(OutputStream.nullOutputStream(), image, input.format);
+        counters.bytes += 2L * input.encoded.length;
+        counters.pixels += input.pixels;
+    }
+
+    /**
+     * Adds one in-memory operation over the raster to the counters.
+     *
+     * @param input benchmark input
+     * @param counters throughput counters
+     */
+    private static void count(Input input, Counters counters) {
+        counters.bytes += input.pixels * 3;
+        counters.pixels += input.pixels;
+    }
+
+    /**
+     * Writes an image in a format.
+     *
+     * @param out destination stream
+     * @param image decoded image
+     * @param format P3 or P6
+     * @throws Throwable if the ImageEditor API fails
+     */
+    private static void write(OutputStream out, Object image, String format) throws Throwable {
+        WRITE.invokeExact(out, image, format.equals("P6"));
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorKernels class implements invert, high contrast and grayscale
+ * with the incubating Java Vector API. Its results are bit-for-bit the same
+ * as the scalar kernels: invert is a bitwise NOT of each unsigned sample,
+ * high contrast is an arithmetic shift of the signed byte by 7, and the
+ * grayscale average uses the exact identity x / 3 == (x * 43691) &gt;&gt; 17
+ * for every channel sum x from 0 to 765.
+ *
+ * This class needs the jdk.incubator.vector module, so it is kept out of the
+ * main source directory and compiled separately:
+ *
+ *     javac --add-modules jdk.incubator.vector -cp bin -d bin simd/VectorKernels.java
+ *
+ * and the program is run with --add-modules jdk.incubator.vector. VectorSupport
+ * loads the kernels by reflection and falls back to the scalar code when this
+ * class or the module is missing.
+ *
+ * @author Moksh Thakore
+ */
+public final class VectorKernels {
+
+    /** Widest byte species for point operations */
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    /** Widest int species, used to sum the channels of several pixels */
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    /** Byte species with one lane per int lane */
+    private static final VectorSpecies<Byte> PIXEL_BYTES =
+        INTS.length() >= 8 ? VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * 8)) : null;
+
+    /** Number of samples of whole pixels converted per grayscale step */
+    private static final int PIXEL_SAMPLES = INTS.length() / 3 * 3;
+
+    /** Shuffle that copies the first lane of each pixel to its other two lanes */
+    private static final VectorShuffle<Byte> SPREAD =
+        PIXEL_BYTES == null ? null : VectorShuffle.fromOp(PIXEL_BYTES, lane -> lane - lane % 3);
+
+    /** Mask of the lanes holding whole pixels */
+    private static final VectorMask<Byte> WHOLE_PIXELS =
+        PIXEL_BYTES == null ? null : PIXEL_BYTES.indexInRange(0, PIXEL_SAMPLES);
+
+    /**
+     * Prevents instantiation.
+     */
+    private VectorKernels() {
+    }
+
+    /**
+     * Returns the vectorized kernels by name, as looked up by VectorSupport.
+     *
+     * @return map from kernel name to operation
+     */
+    public static Map<String, PixelOperation> kernels() {
+        Map<String, PixelOperation> kernels = new HashMap<>();
+        kernels.put("invert", VectorKernels::invert);
+        kernels.put("highContrast", VectorKernels::highContrast);
+        if (PIXEL_BYTES != null) {
+            kernels.put("greyScale", VectorKernels::greyScale);
+        }
+        return kernels;
+    }
+
+    /**
+     * Inverts a run of samples.
+     *
+     * @param data packed RGB samples
+     * @param offset index of the first sample
+     * @param length number of samples
+     */
+    static void invert(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (; i <= end - BYTES.length(); i += BYTES.length()) {
+            ByteVector.fromArray(BYTES, data, i).not().intoArray(data, i);
+        }
+        for (; i < end; i++) {
+            data[i] = (byte) ~data[i];
+        }
+    }
+
+    /**
+     * Converts a run of samples to high contrast. Samples of 128 and above
+     * are negative as signed bytes, so shifting right by 7 gives -1 (255) for
+     * them and 0 for the rest.
+     *
+     * @param data packed RGB samples
+     * @param offset index of the first sample
+     * @param length number of samples
+     */
+    static void highContrast(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (; i <= end - BYTES.length(); i += BYTES.length()) {
+            ByteVector.fromArray(BYTES, data, i).lanewise(VectorOperators.ASHR, 7).intoArray(data, i);
+        }
+        for (; i < end; i++) {
+            data[i] = (byte) (data[i] >> 7);
+        }
+    }
+
+    /**
+     * Converts a run of pixels to grayscale. Three loads offset by one sample
+     * line the green and blue samples of each pixel up under its red sample,
+     * so one vector add sums every pixel in the step at once.
+     *
+     * @param data packed RGB samples
+     * @param offset index of the first sample
+     * @param length number of samples, a multiple of 3
+     */
+    static void greyScale(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int lanes = INTS.length();
+        int i = offset;
+        for (; i + lanes + 2 <= end; i += PIXEL_SAMPLES) {
+            IntVector sum = widen(data, i).add(widen(data, i + 1)).add(widen(data, i + 2));
+            IntVector average = sum.mul(43691).lanewise(VectorOperators.LSHR, 17);
+            ((ByteVector) average.convertShape(VectorOperators.I2B, PIXEL_BYTES, 0))
+                .rearrange(SPREAD)
+                .intoArray(data, i, WHOLE_PIXELS);
+        }
+        for (; i < end; i += 3) {
+            int average = ((data[i] & 0xFF) + (data[i + 1] & 0xFF) + (data[i + 2] & 0xFF)) / 3;
+            data[i] = data[i + 1] = data[i + 2] = (byte) average;
+        }
+    }
+
+    /**
+     * Loads unsigned samples into int lanes.
+     *
+     * @param data packed RGB samples
+     * @param offset index of the first sample
+     * @return one unsigned sample per int lane
+     */
+    private static IntVector widen(byte[] data, int offset) {
+        return ((IntVector) ByteVector.fromArray(PIXEL_BYTES, data, offset)
+                .convertShape(VectorOperators.B2I, INTS, 0)).and(0xFF);
+    }
+}